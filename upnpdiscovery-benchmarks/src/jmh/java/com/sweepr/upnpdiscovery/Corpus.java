@@ -0,0 +1,134 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+/**
+ * M-SEARCH answers and description documents shaped like the ones real devices send.
+ */
+final class Corpus {
+
+    static final String SHORT = "HTTP/1.1 200 OK\r\n" +
+            "CACHE-CONTROL: max-age=1800\r\n" +
+            "LOCATION: http://192.168.1.20:49152/desc.xml\r\n" +
+            "ST: upnp:rootdevice\r\n" +
+            "USN: uuid:2fac1234-31f8-11b4-a222-08002b34c003::upnp:rootdevice\r\n" +
+            "\r\n";
+
+    static final String LONG = "HTTP/1.1 200 OK\r\n" +
+            "CACHE-CONTROL: max-age=1800\r\n" +
+            "DATE: Sat, 17 Oct 2026 10:20:30 GMT\r\n" +
+            "EXT:\r\n" +
+            "LOCATION: http://192.168.1.20:49152/upnp/description/MediaRenderer/rootDesc.xml\r\n" +
+            "OPT: \"http://schemas.upnp.org/upnp/1/0/\"; ns=01\r\n" +
+            "01-NLS: 6e2a1c4c-1dd2-11b2-a3bc-8d2f3e1bbd31\r\n" +
+            "SERVER: Linux/4.9.113 UPnP/1.0 Acme-MediaRenderer/12.4.2 DLNADOC/1.50 Platinum/1.0.5.13\r\n" +
+            "X-User-Agent: redsonic\r\n" +
+            "ST: urn:schemas-upnp-org:device:MediaRenderer:1\r\n" +
+            "USN: uuid:2fac1234-31f8-11b4-a222-08002b34c003::urn:schemas-upnp-org:device:MediaRenderer:1\r\n" +
+            "BOOTID.UPNP.ORG: 1760696430\r\n" +
+            "CONFIGID.UPNP.ORG: 1337\r\n" +
+            "X-Vendor-Capabilities: dlna,dial,airplay,chromecast,spotify-connect,miracast\r\n" +
+            "Content-Length: 0\r\n" +
+            "\r\n";
+
+    static final String MIXED_CASE = "HTTP/1.1 200 OK\r\n" +
+            "Cache-Control: Max-Age = 1800\r\n" +
+            "location: http://192.168.1.20:49152/desc.xml\r\n" +
+            "Server: Linux UPnP/1.0 Acme/1.0\r\n" +
+            "st: upnp:rootdevice\r\n" +
+            "Usn: uuid:2fac1234-31f8-11b4-a222-08002b34c003::upnp:rootdevice\r\n" +
+            "BootId.Upnp.Org: 7\r\n" +
+            "\r\n";
+
+    static final String MALFORMED = "HTTP/1.1 200 OK\n" +
+            "CACHE-CONTROL: max-age=eighteen-hundred\n" +
+            "this line has no colon\r\n" +
+            "LOCATION:http://192.168.1.20:49152/desc.xml   \r\n" +
+            ": empty name\r\n" +
+            "ST:\r\n" +
+            "USN: uuid:2fac1234-31f8-11b4-a222-08002b34c003\r\n" +
+            "CONFIGID.UPNP.ORG: 12ab\r\n";
+
+    private Corpus() {
+    }
+
+    @NonNull
+    static String response(@NonNull String kind) {
+        switch (kind) {
+            case "short":
+                return SHORT;
+            case "long":
+                return LONG;
+            case "mixedCase":
+                return MIXED_CASE;
+            case "malformed":
+                return MALFORMED;
+            default:
+                throw new IllegalArgumentException(kind);
+        }
+    }
+
+    /**
+     * Answer of device {@code index} for search target {@code st}, as a device answering ssdp:all
+     * sends once per root device, UUID and device type.
+     */
+    @NonNull
+    static byte[] response(int index, @NonNull String st) {
+        final String uuid = uuid(index);
+        return ("HTTP/1.1 200 OK\r\n" +
+                "CACHE-CONTROL: max-age=1800\r\n" +
+                "LOCATION: " + location(index) + "\r\n" +
+                "SERVER: Linux/4.9 UPnP/1.0 Acme/1.0\r\n" +
+                "ST: " + st + "\r\n" +
+                "USN: " + uuid + (st.equals(uuid) ? "" : "::" + st) + "\r\n" +
+                "\r\n").getBytes(SsdpHeaders.UTF_8);
+    }
+
+    @NonNull
+    static String uuid(int index) {
+        return String.format("uuid:2fac1234-31f8-11b4-a222-%012x", index);
+    }
+
+    @NonNull
+    static String location(int index) {
+        return "http://10." + ((index >> 8) & 0xff) + "." + (index & 0xff) + ".1:49152/desc.xml";
+    }
+
+    /**
+     * A MediaRenderer description padded with services until it is about {@code size} bytes.
+     */
+    @NonNull
+    static byte[] document(@NonNull String udn, int size) {
+        final StringBuilder xml = new StringBuilder(size + 512);
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+                .append("<root xmlns=\"urn:schemas-upnp-org:device-1-0\">\n")
+                .append("<specVersion><major>1</major><minor>0</minor></specVersion>\n")
+                .append("<device>\n")
+                .append("<deviceType>urn:schemas-upnp-org:device:MediaRenderer:1</deviceType>\n")
+                .append("<friendlyName>Living Room TV</friendlyName>\n")
+                .append("<manufacturer>Acme</manufacturer>\n")
+                .append("<manufacturerURL>http://www.acme.example/</manufacturerURL>\n")
+                .append("<modelDescription>Acme Smart TV</modelDescription>\n")
+                .append("<modelName>TV-5000</modelName>\n")
+                .append("<modelNumber>5000</modelNumber>\n")
+                .append("<serialNumber>SN0001</serialNumber>\n")
+                .append("<UDN>").append(udn).append("</UDN>\n")
+                .append("<iconList><icon><mimetype>image/png</mimetype><width>120</width><height>120</height>")
+                .append("<depth>24</depth><url>/icon.png</url></icon></iconList>\n")
+                .append("<serviceList>\n");
+        int index = 0;
+        do {
+            xml.append("<service><serviceType>urn:schemas-upnp-org:service:RenderingControl:1</serviceType>")
+                    .append("<serviceId>urn:upnp-org:serviceId:RenderingControl").append(index).append("</serviceId>")
+                    .append("<SCPDURL>/RenderingControl").append(index).append("/desc.xml</SCPDURL>")
+                    .append("<controlURL>/RenderingControl").append(index).append("/control</controlURL>")
+                    .append("<eventSubURL>/RenderingControl").append(index).append("/event</eventSubURL></service>\n");
+            index++;
+        } while (xml.length() < size - 128);
+        xml.append("</serviceList>\n")
+                .append("<presentationURL>http://192.168.1.20/</presentationURL>\n")
+                .append("</device>\n")
+                .append("</root>\n");
+        return xml.toString().getBytes(SsdpHeaders.UTF_8);
+    }
+}
@@ -0,0 +1,42 @@
+package com.sweepr.upnpdiscovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Pull-parsing description documents from 2 KB to 500 KB, with and without retaining them.
+ */
+@State(Scope.Thread)
+public class DescriptionParseBenchmark {
+
+    @Param({"2048", "16384", "131072", "512000"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean retain;
+
+    private byte[] mDocument;
+
+    @Setup
+    public void setUp() {
+        mDocument = Corpus.document("uuid:1234", size);
+    }
+
+    /** Root device fields, reading the whole stream only when retaining it. */
+    @Benchmark
+    public Object parse() throws IOException {
+        return DescriptionParser.parse(new ByteArrayInputStream(mDocument), "UTF-8", Integer.MAX_VALUE, retain);
+    }
+
+    /** Services, icons and embedded devices, parsed on first access to the tree. */
+    @Benchmark
+    public UPnPEmbeddedDevice parseTree() {
+        return DescriptionParser.parseTree(mDocument, "UTF-8");
+    }
+}
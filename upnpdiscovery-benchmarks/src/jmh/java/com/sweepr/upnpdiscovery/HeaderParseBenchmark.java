@@ -0,0 +1,56 @@
+package com.sweepr.upnpdiscovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of turning one M-SEARCH answer into a {@link UPnPDevice}, per corpus entry.
+ */
+@State(Scope.Thread)
+public class HeaderParseBenchmark {
+
+    @Param({"short", "long", "mixedCase", "malformed"})
+    public String kind;
+
+    private byte[] mData;
+    private String mText;
+    private UPnPDevice mDevice;
+
+    @Setup
+    public void setUp() {
+        mText = Corpus.response(kind);
+        mData = mText.getBytes(SsdpHeaders.UTF_8);
+        mDevice = new UPnPDevice("192.168.1.20", SsdpHeaders.parse(mData, 0, mData.length), mData, mData.length, "wlan0");
+        mDevice.update(DescriptionParser.parse(new String(Corpus.document("uuid:1234", 2048), SsdpHeaders.UTF_8)));
+    }
+
+    /** Header scan straight from the receive buffer, as the socket loop does. */
+    @Benchmark
+    public Object parseBytes() {
+        return SsdpHeaders.parse(mData, 0, mData.length);
+    }
+
+    /** Header scan from a String, as the public {@link UPnPDevice} constructor does. */
+    @Benchmark
+    public Object parseString() {
+        return SsdpHeaders.parse(mText);
+    }
+
+    @Benchmark
+    public UPnPDevice buildDevice() {
+        return new UPnPDevice("192.168.1.20", SsdpHeaders.parse(mData, 0, mData.length), mData, mData.length, "wlan0");
+    }
+
+    @Benchmark
+    public String deviceToString() {
+        return mDevice.toString();
+    }
+
+    @Benchmark
+    public String header() {
+        return new UPnPDevice("192.168.1.20", SsdpHeaders.parse(mData, 0, mData.length), mData, mData.length, "wlan0").getHeader();
+    }
+}
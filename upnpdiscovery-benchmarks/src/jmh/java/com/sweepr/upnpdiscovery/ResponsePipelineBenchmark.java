@@ -0,0 +1,184 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One whole {@link SsdpSearch} scan over a replayed burst of answers: header parsing,
+ * de-duplication of the answers ssdp:all produces, description fetch and parse, and result
+ * delivery. Network, executor and scheduler are replaced by in-thread fakes so only the library
+ * is measured.
+ */
+@State(Scope.Thread)
+public class ResponsePipelineBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int devices;
+
+    /** 1: one answer per device; 3: root device, UUID and device type, as for ssdp:all. */
+    @Param({"1", "3"})
+    public int answersPerDevice;
+
+    private final List<InetSocketAddress> mSenders = new ArrayList<>();
+    private final List<byte[]> mAnswers = new ArrayList<>();
+    private final Map<String, byte[]> mDocuments = new HashMap<>();
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Runs posts inline; the hard deadline is never needed since every fetch completes inline. */
+    private static final Scheduler INLINE = new Scheduler() {
+        @Override
+        public long now() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+
+        @Override
+        public void post(@NonNull Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void postDelayed(@NonNull Runnable task, long delayMillis) {
+        }
+
+        @Override
+        public void cancel(@NonNull Runnable task) {
+        }
+    };
+
+    private final HttpClient mHttp = new HttpClient() {
+        @NonNull
+        @Override
+        public Response get(@NonNull String url, @NonNull Map<String, String> headers) {
+            final byte[] document = mDocuments.get(url);
+            return new Response() {
+                @Override
+                public int getStatus() {
+                    return document != null ? 200 : 404;
+                }
+
+                @Nullable
+                @Override
+                public String getHeader(@NonNull String name) {
+                    return null;
+                }
+
+                @NonNull
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(document);
+                }
+
+                @Override
+                public void release() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    };
+
+    /** Hands every answer over on the first receive, then closes the search window. */
+    private final class ReplayTransport implements SsdpTransport {
+        private final SsdpSearch[] mSearch;
+        private boolean mDone;
+
+        ReplayTransport(SsdpSearch[] search) {
+            mSearch = search;
+        }
+
+        @Override
+        public void send() {
+        }
+
+        @Override
+        public void sendTo(@NonNull InetSocketAddress target, @NonNull byte[] datagram) {
+        }
+
+        @Override
+        public int receive(long timeoutMillis, @NonNull Receiver receiver) {
+            if (mDone) {
+                return 0;
+            }
+            mDone = true;
+            for (int i = 0; i < mAnswers.size(); i++) {
+                final byte[] answer = mAnswers.get(i);
+                receiver.onDatagram(mSenders.get(i), "eth0", answer, answer.length);
+            }
+            mSearch[0].abort();
+            return mAnswers.size();
+        }
+
+        @Override
+        public void wakeup() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        final String[] targets = {"upnp:rootdevice", null, "urn:schemas-upnp-org:device:MediaRenderer:1"};
+        for (int i = 0; i < devices; i++) {
+            final InetSocketAddress sender = new InetSocketAddress(
+                    InetAddress.getByName("10." + ((i >> 8) & 0xff) + "." + (i & 0xff) + ".1"), 1900);
+            for (int answer = 0; answer < answersPerDevice; answer++) {
+                mSenders.add(sender);
+                mAnswers.add(Corpus.response(i, targets[answer] != null ? targets[answer] : Corpus.uuid(i)));
+            }
+            mDocuments.put(Corpus.location(i), Corpus.document(Corpus.uuid(i), 2048));
+        }
+    }
+
+    @Benchmark
+    public Set<UPnPDevice> scan() throws Exception {
+        final SsdpSearch[] search = new SsdpSearch[1];
+        final SsdpTransport.Factory transports = new SsdpTransport.Factory() {
+            @NonNull
+            @Override
+            public SsdpTransport open(@Nullable SearchRequest request, @NonNull InetSocketAddress group,
+                                      @NonNull List<byte[]> queries) {
+                return new ReplayTransport(search);
+            }
+        };
+        // A fresh loader per scan, so every description is fetched and parsed instead of cached.
+        final DescriptionLoader loader = new DescriptionLoader(DIRECT, mHttp, 16, 2 * devices, 64 * 1024, false);
+        search[0] = new SsdpSearch(ScanPolicy.DEFAULT, "M-SEARCH * HTTP/1.1\r\nMX: 1\r\n\r\n",
+                SsdpSearch.DEFAULT_ADDRESS, SsdpSearch.DEFAULT_PORT, transports, loader, INLINE, null);
+
+        search[0].run();
+        final Set<UPnPDevice> result = search[0].getHandle().get();
+        if (result.size() != devices) {
+            throw new IllegalStateException("Expected " + devices + " devices, got " + result.size());
+        }
+        return result;
+    }
+}
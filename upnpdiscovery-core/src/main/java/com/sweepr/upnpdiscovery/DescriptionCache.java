@@ -0,0 +1,72 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU of parsed description documents keyed by LOCATION URL.
+ * <p>
+ * Entries stay fresh for the CACHE-CONTROL max-age announced in the SSDP response. Stale entries
+ * are kept so that their ETag / Last-Modified validators can be used for a conditional GET.
+ */
+class DescriptionCache {
+
+    static final class Entry {
+        @NonNull
+        final DeviceDescription description;
+        @Nullable
+        final String etag;
+        @Nullable
+        final String lastModified;
+        long expiresAt;
+
+        Entry(@NonNull DeviceDescription description, @Nullable String etag, @Nullable String lastModified, long expiresAt) {
+            this.description = description;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        boolean canRevalidate() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    DescriptionCache(final int maxEntries) {
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DescriptionCache.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Nullable
+    synchronized Entry get(@NonNull String location) {
+        return mEntries.get(location);
+    }
+
+    synchronized void put(@NonNull String location, @NonNull Entry entry) {
+        mEntries.put(location, entry);
+    }
+
+    synchronized void refresh(@NonNull String location, long expiresAt) {
+        final Entry entry = mEntries.get(location);
+        if (entry != null) {
+            entry.expiresAt = expiresAt;
+        }
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+    }
+}
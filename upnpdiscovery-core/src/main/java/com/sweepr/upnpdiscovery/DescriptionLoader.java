@@ -0,0 +1,468 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Downloads and parses device description documents on a caller-supplied {@link Executor}.
+ * <p>
+ * At most {@code maxInFlight} requests are handed to the executor at any time, and at most
+ * {@code maxPerHost} of them to the same host and port, since the embedded HTTP servers of cheap
+ * devices stall or drop connections under parallel requests. The rest wait in a FIFO, which a
+ * host at its limit does not hold up for the others. Connections are released for keep-alive
+ * reuse once a body has been read. Each response body is parsed on the executor while it streams
+ * in, never buffered as a whole, and rejected once it grows past {@code maxDocumentBytes}.
+ * Results are delivered on the executor too. Parsed descriptions are kept in a {@link DescriptionCache} for the lifetime of
+ * the loader.
+ */
+public final class DescriptionLoader {
+
+    private static final Logger LOG = Logger.getLogger("DescriptionLoader");
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+    public static final int DEFAULT_CACHE_SIZE = 128;
+    public static final int DEFAULT_MAX_DOCUMENT_BYTES = DescriptionParser.DEFAULT_MAX_DOCUMENT_BYTES;
+
+    @NonNull
+    private final Executor mExecutor;
+    @NonNull
+    private final HttpClient mHttp;
+    private final int mMaxInFlight;
+    private final int mMaxPerHost;
+    private final int mMaxDocumentBytes;
+    private final boolean mRetainDocuments;
+    private final DescriptionCache mCache;
+    private final ArrayDeque<Call> mPending = new ArrayDeque<>();
+    private final HashMap<String, Call> mCalls = new HashMap<>();
+    private int mInFlight;
+    // Requests handed to the executor per host and port; hosts at zero are removed
+    private final HashMap<String, Integer> mHostInFlight = new HashMap<>();
+    private boolean mShutdown;
+    @NonNull
+    private volatile DiscoveryMetrics mMetrics = DiscoveryMetrics.NONE;
+
+    private static final class Waiter {
+        final Object tag;
+        final ResultHandler<DeviceDescription> handler;
+
+        Waiter(Object tag, ResultHandler<DeviceDescription> handler) {
+            this.tag = tag;
+            this.handler = handler;
+        }
+    }
+
+    /** One network request for a URL together with every handler waiting on it. */
+    private static final class Call {
+        final String url;
+        final String host;
+        final int maxAgeSeconds;
+        @Nullable
+        final DescriptionCache.Entry validators;
+        // Sink of the caller that started the request; later callers sharing it are not told
+        @NonNull
+        final DiscoveryMetrics metrics;
+        final List<Waiter> waiters = new ArrayList<>();
+        volatile boolean cancelled;
+        @Nullable
+        volatile HttpClient.Response response;
+
+        Call(String url, int maxAgeSeconds, @Nullable DescriptionCache.Entry validators, @NonNull DiscoveryMetrics metrics) {
+            this.url = url;
+            this.host = hostOf(url);
+            this.maxAgeSeconds = maxAgeSeconds;
+            this.validators = validators;
+            this.metrics = metrics;
+        }
+
+        void cancel() {
+            cancelled = true;
+            final HttpClient.Response response = this.response;
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * @param maxDocumentBytes size above which a description is rejected
+     * @param retainDocuments  keep every description document for
+     *                         {@link UPnPDevice#getDescriptionXML()}; when {@code false} only the
+     *                         root device fields are read and the download stops right after them
+     */
+    public DescriptionLoader(@NonNull Executor executor, @NonNull HttpClient http, int maxInFlight, int cacheSize,
+                             int maxDocumentBytes, boolean retainDocuments) {
+        this(executor, http, maxInFlight, DEFAULT_MAX_PER_HOST, cacheSize, maxDocumentBytes, retainDocuments);
+    }
+
+    /**
+     * @param maxPerHost requests in flight to the same host and port, at most {@code maxInFlight}
+     */
+    public DescriptionLoader(@NonNull Executor executor, @NonNull HttpClient http, int maxInFlight, int maxPerHost,
+                             int cacheSize, int maxDocumentBytes, boolean retainDocuments) {
+        if (maxInFlight <= 0 || maxPerHost <= 0 || cacheSize <= 0 || maxDocumentBytes <= 0) {
+            throw new IllegalArgumentException("maxInFlight, maxPerHost, cacheSize and maxDocumentBytes must be positive");
+        }
+
+        mExecutor = executor;
+        mHttp = http;
+        mMaxInFlight = maxInFlight;
+        mMaxPerHost = Math.min(maxPerHost, maxInFlight);
+        mMaxDocumentBytes = maxDocumentBytes;
+        mRetainDocuments = retainDocuments;
+        mCache = new DescriptionCache(cacheSize);
+    }
+
+    /**
+     * Reports network requests, in-flight counts and parse costs to {@code metrics} from now on,
+     * for the fetches that do not bring a sink of their own.
+     */
+    public void setMetrics(@NonNull DiscoveryMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Downloads and parses the description at {@code url}. A cached copy younger than its max-age
+     * is handed back without touching the network; an expired copy is revalidated with its ETag /
+     * Last-Modified when the device supplied them. Concurrent fetches of the same URL share one
+     * request. Results are delivered on the executor; callers hop to their own thread.
+     */
+    void fetch(@NonNull String url, int maxAgeSeconds, @NonNull Object tag,
+               @NonNull ResultHandler<DeviceDescription> handler) {
+        fetch(url, maxAgeSeconds, tag, DiscoveryMetrics.NONE, handler);
+    }
+
+    /**
+     * Same as {@link #fetch(String, int, Object, ResultHandler)}, reporting the request to
+     * {@code metrics} instead of the loader's own sink. A request already started for the same
+     * URL by another caller keeps reporting to that caller only.
+     */
+    void fetch(@NonNull final String url, final int maxAgeSeconds, @NonNull Object tag,
+               @NonNull DiscoveryMetrics metrics, @NonNull final ResultHandler<DeviceDescription> handler) {
+        final DescriptionCache.Entry cached = mCache.get(url);
+        if (cached != null && cached.isFresh(now())) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handler.onSuccess(cached.description);
+                }
+            });
+            return;
+        }
+
+        final DescriptionCache.Entry validators = cached != null && cached.canRevalidate() ? cached : null;
+        final Call call = new Call(url, maxAgeSeconds, validators, metrics != DiscoveryMetrics.NONE ? metrics : mMetrics);
+        call.waiters.add(new Waiter(tag, handler));
+
+        int inFlight = 0;
+        final boolean shutdown;
+        synchronized (this) {
+            shutdown = mShutdown;
+            if (!shutdown) {
+                final Call pending = mCalls.get(url);
+                if (pending != null) {
+                    pending.waiters.add(new Waiter(tag, handler));
+                    return;
+                }
+                mCalls.put(url, call);
+
+                if (mInFlight >= mMaxInFlight || !hasHostCapacity(call.host)) {
+                    mPending.add(call);
+                    return;
+                }
+                start(call);
+                inFlight = mInFlight;
+            }
+        }
+        if (shutdown) {
+            // Outside the lock, like every other handler call.
+            handler.onFailure(shutdownError());
+            return;
+        }
+        onSubmitted(call, inFlight);
+        submit(call);
+    }
+
+    /**
+     * Drops every cached description, forcing the next fetch of each LOCATION to hit the network.
+     */
+    public void clearCache() {
+        mCache.clear();
+    }
+
+    /**
+     * Detaches every handler registered with {@code tag}. Requests left without any handler are
+     * cancelled; requests shared with other callers keep running for them.
+     */
+    public void cancel(@NonNull Object tag) {
+        final List<Call> cancelled = new ArrayList<>();
+        synchronized (this) {
+            final Iterator<Call> calls = mCalls.values().iterator();
+            while (calls.hasNext()) {
+                final Call call = calls.next();
+                final Iterator<Waiter> waiters = call.waiters.iterator();
+                while (waiters.hasNext()) {
+                    if (tag.equals(waiters.next().tag)) {
+                        waiters.remove();
+                    }
+                }
+
+                if (call.waiters.isEmpty()) {
+                    calls.remove();
+                    mPending.remove(call);
+                    cancelled.add(call);
+                }
+            }
+        }
+
+        for (Call call : cancelled) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * Cancels every pending and in-flight fetch and fails their handlers; later fetches fail
+     * right away. The executor is left running.
+     */
+    public void shutdown() {
+        final List<Call> calls;
+        final List<Waiter> waiters = new ArrayList<>();
+        synchronized (this) {
+            mShutdown = true;
+            calls = new ArrayList<>(mCalls.values());
+            for (Call call : calls) {
+                waiters.addAll(call.waiters);
+                call.waiters.clear();
+            }
+            mPending.clear();
+            mCalls.clear();
+        }
+
+        for (Call call : calls) {
+            call.cancel();
+        }
+        for (Waiter waiter : waiters) {
+            waiter.handler.onFailure(shutdownError());
+        }
+    }
+
+    @NonNull
+    private static IllegalStateException shutdownError() {
+        return new IllegalStateException("DescriptionLoader is shut down");
+    }
+
+    private void submit(@NonNull final Call call) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!call.cancelled) {
+                        load(call);
+                    }
+                } finally {
+                    onFinished(call);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the executor: issues the (conditional) GET and parses the body as it arrives.
+     */
+    private void load(@NonNull Call call) {
+        HttpClient.Response response = null;
+        // Set once the body has been consumed, so the connection can go back for keep-alive
+        boolean reusable = false;
+        try {
+            final Map<String, String> headers = new HashMap<>();
+            if (call.validators != null) {
+                if (call.validators.etag != null) {
+                    headers.put("If-None-Match", call.validators.etag);
+                }
+                if (call.validators.lastModified != null) {
+                    headers.put("If-Modified-Since", call.validators.lastModified);
+                }
+            }
+
+            response = mHttp.get(call.url, headers);
+            call.response = response;
+            if (call.cancelled) {
+                return;
+            }
+
+            final int status = response.getStatus();
+            final long expiresAt = now() + Math.max(0, call.maxAgeSeconds) * 1000L;
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (call.validators == null) {
+                    complete(call, null, new IllegalStateException("Unexpected 304 for " + call.url));
+                    return;
+                }
+                mCache.refresh(call.url, expiresAt);
+                reusable = true;
+                complete(call, call.validators.description, null);
+                return;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " for " + call.url);
+            }
+
+            final DeviceDescription description;
+            final InputStream in = response.getBody();
+            try {
+                description = DescriptionParser.parse(in, charsetOf(response.getHeader("Content-Type")), mMaxDocumentBytes, mRetainDocuments, call.metrics);
+            } finally {
+                in.close();
+            }
+
+            mCache.put(call.url, new DescriptionCache.Entry(description,
+                    response.getHeader("ETag"), response.getHeader("Last-Modified"), expiresAt));
+            reusable = true;
+            complete(call, description, null);
+        } catch (IOException | RuntimeException e) {
+            if (!call.cancelled) {
+                LOG.fine("URL: " + call.url + " get content error!");
+                complete(call, null, e);
+            }
+        } finally {
+            call.response = null;
+            if (response != null) {
+                if (reusable && !call.cancelled) {
+                    response.release();
+                } else {
+                    response.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the scheme-less {@code host:port} part of {@code url}, lower-cased, which groups the
+     * LOCATIONs served by one device
+     */
+    @NonNull
+    static String hostOf(@NonNull String url) {
+        final int scheme = url.indexOf("://");
+        final int start = scheme >= 0 ? scheme + 3 : 0;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        return url.substring(start, end).toLowerCase(Locale.US);
+    }
+
+    /**
+     * @return the charset parameter of a Content-Type header, {@code null} when absent so the
+     * parser falls back to the XML declaration.
+     */
+    @Nullable
+    static String charsetOf(@Nullable String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+
+        for (String param : contentType.split(";")) {
+            final String trimmed = param.trim();
+            if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                final String charset = trimmed.substring(8).replace("\"", "").trim();
+                return charset.isEmpty() ? null : charset;
+            }
+        }
+        return null;
+    }
+
+    private void complete(@NonNull Call call, @Nullable DeviceDescription description, @Nullable Exception error) {
+        final List<Waiter> waiters;
+        synchronized (this) {
+            if (mCalls.get(call.url) == call) {
+                mCalls.remove(call.url);
+            }
+            waiters = new ArrayList<>(call.waiters);
+            call.waiters.clear();
+        }
+
+        for (Waiter waiter : waiters) {
+            if (description != null) {
+                waiter.handler.onSuccess(description);
+            } else {
+                waiter.handler.onFailure(error);
+            }
+        }
+    }
+
+    /**
+     * Counts {@code call} against the global and per-host limits. Must hold the loader lock.
+     */
+    private void start(@NonNull Call call) {
+        mInFlight++;
+        final Integer count = mHostInFlight.get(call.host);
+        mHostInFlight.put(call.host, count == null ? 1 : count + 1);
+    }
+
+    private boolean hasHostCapacity(@NonNull String host) {
+        final Integer count = mHostInFlight.get(host);
+        return count == null || count < mMaxPerHost;
+    }
+
+    /**
+     * Frees the slots of {@code finished} and starts the oldest pending call whose host is below
+     * its limit. One completion frees one global slot and one slot of a single host, so at most
+     * one call can start.
+     */
+    private void onFinished(@NonNull Call finished) {
+        Call next = null;
+        final int inFlight;
+        synchronized (this) {
+            mInFlight--;
+            final int count = mHostInFlight.get(finished.host) - 1;
+            if (count == 0) {
+                mHostInFlight.remove(finished.host);
+            } else {
+                mHostInFlight.put(finished.host, count);
+            }
+            if (mShutdown) {
+                return;
+            }
+
+            final Iterator<Call> pending = mPending.iterator();
+            while (pending.hasNext()) {
+                final Call call = pending.next();
+                if (hasHostCapacity(call.host)) {
+                    pending.remove();
+                    next = call;
+                    break;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            start(next);
+            inFlight = mInFlight;
+        }
+        onSubmitted(next, inFlight);
+        submit(next);
+    }
+
+    private static void onSubmitted(@NonNull Call call, int inFlight) {
+        if (call.metrics != DiscoveryMetrics.NONE) {
+            call.metrics.onFetchStarted(inFlight);
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pull-parses a description document straight from its input stream.
+ * <p>
+ * Every byte read goes through a size check, so an oversized document fails as soon as it crosses
+ * the limit instead of after it has been buffered. When the document is not retained, the
+ * {@code iconList}, {@code serviceList} and {@code deviceList} of the root device are skipped
+ * without building anything from them, and reading stops at {@code presentationURL}, the last
+ * field of a device in the UPnP schema, or at the end of the root device. Nothing after it is
+ * downloaded or copied.
+ */
+final class DescriptionParser {
+
+    static final int DEFAULT_MAX_DOCUMENT_BYTES = 512 * 1024;
+
+    private static final String ns = null;
+
+    // Resolved once: on Android this is the platform parser, on the JVM whichever XmlPull
+    // implementation is on the classpath (kxml2 by default).
+    @Nullable
+    private static XmlPullParserFactory sFactory;
+
+    private DescriptionParser() {
+    }
+
+    @NonNull
+    private static XmlPullParser newPullParser() throws XmlPullParserException {
+        XmlPullParserFactory factory;
+        synchronized (DescriptionParser.class) {
+            factory = sFactory;
+            if (factory == null) {
+                factory = XmlPullParserFactory.newInstance();
+                sFactory = factory;
+            }
+        }
+        return factory.newPullParser();
+    }
+
+    /**
+     * @param encoding       charset announced by the server, {@code null} to let the parser read it
+     *                       from the XML declaration
+     * @param maxBytes       size above which the document is rejected
+     * @param retainDocument read the whole document and keep its bytes, instead of stopping once
+     *                       the root device fields are known
+     * @throws IOException when reading fails or the document is larger than {@code maxBytes}
+     */
+    @NonNull
+    static DeviceDescription parse(@NonNull InputStream in, @Nullable String encoding, int maxBytes,
+                                   boolean retainDocument) throws IOException {
+        return parse(in, encoding, maxBytes, retainDocument, DiscoveryMetrics.NONE);
+    }
+
+    /**
+     * Same as {@link #parse(InputStream, String, int, boolean)}, reporting the time spent and the
+     * bytes read to {@code metrics}.
+     */
+    @NonNull
+    static DeviceDescription parse(@NonNull InputStream in, @Nullable String encoding, int maxBytes,
+                                   boolean retainDocument, @NonNull DiscoveryMetrics metrics) throws IOException {
+        final long startNanos = metrics != DiscoveryMetrics.NONE ? System.nanoTime() : 0;
+        final BoundedInputStream bounded = new BoundedInputStream(in, maxBytes, retainDocument);
+        final DeviceDescription result = new DeviceDescription();
+
+        String inputEncoding = encoding;
+        try {
+            final XmlPullParser parser = newPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+            parser.setInput(bounded, encoding);
+            parser.nextTag();
+            if (parser.getInputEncoding() != null) {
+                inputEncoding = parser.getInputEncoding();
+            }
+            readRoot(parser, result, !retainDocument);
+        } catch (XmlPullParserException ignore) {
+            // Malformed documents keep whatever was read before the error, as they always have.
+        }
+
+        result.canonicalize();
+        if (retainDocument) {
+            bounded.drain();
+            result.setDocument(bounded.toByteArray(), inputEncoding != null ? inputEncoding : "UTF-8");
+        }
+        if (metrics != DiscoveryMetrics.NONE) {
+            metrics.onDescriptionParsed(System.nanoTime() - startNanos, bounded.getCount());
+        }
+        return result;
+    }
+
+    /**
+     * Parses a document that is already in memory, retaining it.
+     */
+    @NonNull
+    static DeviceDescription parse(@NonNull String xml) {
+        try {
+            return parse(new ByteArrayInputStream(xml.getBytes(SsdpHeaders.UTF_8)), "UTF-8", Integer.MAX_VALUE, true);
+        } catch (IOException e) {
+            // Cannot happen on an in-memory stream without a size limit.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the services, icons and embedded devices of a retained document, which
+     * {@link #parse} skips.
+     *
+     * @return the root device, {@link UPnPEmbeddedDevice#EMPTY} when the document has none
+     */
+    @NonNull
+    static UPnPEmbeddedDevice parseTree(@NonNull byte[] document, @NonNull String encoding) {
+        try {
+            final XmlPullParser parser = newPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+            parser.setInput(new ByteArrayInputStream(document), encoding);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, ns, "root");
+            while (parser.next() != XmlPullParser.END_TAG) {
+                if (parser.getEventType() != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                if (parser.getName().equalsIgnoreCase("device")) {
+                    return readDeviceTree(parser);
+                }
+                skip(parser);
+            }
+        } catch (IOException | XmlPullParserException ignore) {
+        }
+        return UPnPEmbeddedDevice.EMPTY;
+    }
+
+    private static void readRoot(XmlPullParser parser, DeviceDescription result, boolean summaryOnly) throws XmlPullParserException, IOException {
+        parser.require(XmlPullParser.START_TAG, ns, "root");
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+
+            final String name = parser.getName();
+            if (name.equals("URLBase")) {
+                result.URLBase = readText(parser);
+            } else if (name.equalsIgnoreCase("device")) {
+                readDevice(parser, result, summaryOnly);
+                if (summaryOnly) {
+                    // URLBase precedes the device; nothing after it is needed.
+                    return;
+                }
+            } else {
+                skip(parser);
+            }
+        }
+    }
+
+    private static void readDevice(XmlPullParser parser, DeviceDescription result, boolean summaryOnly) throws XmlPullParserException, IOException {
+        parser.require(XmlPullParser.START_TAG, ns, "device");
+
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            final String name = parser.getName();
+            if (name.equals("deviceType")) {
+                result.deviceType = readText(parser);
+            } else if (name.equals("friendlyName")) {
+                result.friendlyName = readText(parser);
+            } else if (name.equals("presentationURL")) {
+                result.presentationURL = readText(parser);
+                if (summaryOnly) {
+                    // Last in the schema's order, after the lists; devices that put it earlier
+                    // lose the fields that follow, which the schema does not allow anyway.
+                    return;
+                }
+            } else if (name.equals("serialNumber")) {
+                result.serialNumber = readText(parser);
+            } else if (name.equals("modelName")) {
+                result.modelName = readText(parser);
+            } else if (name.equals("modelNumber")) {
+                result.modelNumber = readText(parser);
+            } else if (name.equals("modelURL")) {
+                result.modelURL = readText(parser);
+            } else if (name.equals("manufacturer")) {
+                result.manufacturer = readText(parser);
+            } else if (name.equals("manufacturerURL")) {
+                result.manufacturerURL = readText(parser);
+            } else if (name.equals("UDN")) {
+                result.UDN = readText(parser);
+            } else {
+                skip(parser);
+            }
+        }
+    }
+
+    private static UPnPEmbeddedDevice readDeviceTree(XmlPullParser parser) throws XmlPullParserException, IOException {
+        final UPnPEmbeddedDevice result = new UPnPEmbeddedDevice();
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            final String name = parser.getName();
+            if (name.equals("deviceType")) {
+                result.deviceType = readText(parser);
+            } else if (name.equals("friendlyName")) {
+                result.friendlyName = readText(parser);
+            } else if (name.equals("manufacturer")) {
+                result.manufacturer = readText(parser);
+            } else if (name.equals("manufacturerURL")) {
+                result.manufacturerURL = readText(parser);
+            } else if (name.equals("modelDescription")) {
+                result.modelDescription = readText(parser);
+            } else if (name.equals("modelName")) {
+                result.modelName = readText(parser);
+            } else if (name.equals("modelNumber")) {
+                result.modelNumber = readText(parser);
+            } else if (name.equals("modelURL")) {
+                result.modelURL = readText(parser);
+            } else if (name.equals("serialNumber")) {
+                result.serialNumber = readText(parser);
+            } else if (name.equals("UDN")) {
+                result.UDN = readText(parser);
+            } else if (name.equals("presentationURL")) {
+                result.presentationURL = readText(parser);
+            } else if (name.equals("serviceList")) {
+                final List<UPnPService> services = new ArrayList<>();
+                while (nextChild(parser, "service")) {
+                    services.add(readService(parser));
+                }
+                result.services = Collections.unmodifiableList(services);
+            } else if (name.equals("iconList")) {
+                final List<UPnPIcon> icons = new ArrayList<>();
+                while (nextChild(parser, "icon")) {
+                    icons.add(readIcon(parser));
+                }
+                result.icons = Collections.unmodifiableList(icons);
+            } else if (name.equals("deviceList")) {
+                final List<UPnPEmbeddedDevice> devices = new ArrayList<>();
+                while (nextChild(parser, "device")) {
+                    devices.add(readDeviceTree(parser));
+                }
+                result.devices = Collections.unmodifiableList(devices);
+            } else {
+                skip(parser);
+            }
+        }
+        return result;
+    }
+
+    private static UPnPService readService(XmlPullParser parser) throws XmlPullParserException, IOException {
+        String serviceType = "";
+        String serviceId = "";
+        String scpdUrl = "";
+        String controlUrl = "";
+        String eventSubUrl = "";
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            final String name = parser.getName();
+            if (name.equals("serviceType")) {
+                serviceType = readText(parser);
+            } else if (name.equals("serviceId")) {
+                serviceId = readText(parser);
+            } else if (name.equals("SCPDURL")) {
+                scpdUrl = readText(parser);
+            } else if (name.equals("controlURL")) {
+                controlUrl = readText(parser);
+            } else if (name.equals("eventSubURL")) {
+                eventSubUrl = readText(parser);
+            } else {
+                skip(parser);
+            }
+        }
+        return new UPnPService(serviceType, serviceId, scpdUrl, controlUrl, eventSubUrl);
+    }
+
+    private static UPnPIcon readIcon(XmlPullParser parser) throws XmlPullParserException, IOException {
+        String mimeType = "";
+        int width = 0;
+        int height = 0;
+        int depth = 0;
+        String url = "";
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            final String name = parser.getName();
+            if (name.equals("mimetype")) {
+                mimeType = readText(parser);
+            } else if (name.equals("width")) {
+                width = readInt(parser);
+            } else if (name.equals("height")) {
+                height = readInt(parser);
+            } else if (name.equals("depth")) {
+                depth = readInt(parser);
+            } else if (name.equals("url")) {
+                url = readText(parser);
+            } else {
+                skip(parser);
+            }
+        }
+        return new UPnPIcon(mimeType, width, height, depth, url);
+    }
+
+    /**
+     * Moves to the next {@code name} child of the current list element, skipping anything else.
+     *
+     * @return false once the list has ended
+     */
+    private static boolean nextChild(XmlPullParser parser, String name) throws XmlPullParserException, IOException {
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            if (parser.getName().equals(name)) {
+                return true;
+            }
+            skip(parser);
+        }
+        return false;
+    }
+
+    private static int readInt(XmlPullParser parser) throws IOException, XmlPullParserException {
+        try {
+            return Integer.parseInt(readText(parser).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String readText(XmlPullParser parser) throws IOException, XmlPullParserException {
+        if (parser.next() == XmlPullParser.TEXT) {
+            final String result = parser.getText();
+            parser.nextTag();
+            return result;
+        }
+        return "";
+    }
+
+    private static void skip(XmlPullParser parser) throws XmlPullParserException, IOException {
+        if (parser.getEventType() != XmlPullParser.START_TAG) {
+            throw new IllegalStateException();
+        }
+
+        int depth = 1;
+        while (depth != 0) {
+            switch (parser.next()) {
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes handed to the parser, rejects anything past the limit and optionally keeps
+     * a copy of them.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private final int mMaxBytes;
+        @Nullable
+        private final ByteArrayOutputStream mCopy;
+        private long mCount;
+
+        BoundedInputStream(@NonNull InputStream in, int maxBytes, boolean keepCopy) {
+            super(in);
+            mMaxBytes = maxBytes;
+            mCopy = keepCopy ? new ByteArrayOutputStream() : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                count(1);
+                if (mCopy != null) {
+                    mCopy.write(b);
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+                if (mCopy != null) {
+                    mCopy.write(buffer, offset, read);
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Route through read() so skipped bytes are counted and copied too.
+            final byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            final int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        void drain() throws IOException {
+            final byte[] buffer = new byte[4096];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // read() does the counting and copying
+            }
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @NonNull
+        byte[] toByteArray() {
+            return mCopy != null ? mCopy.toByteArray() : new byte[0];
+        }
+
+        private void count(int read) throws IOException {
+            mCount += read;
+            if (mCount > mMaxBytes) {
+                throw new IOException("Description document exceeds " + mMaxBytes + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Root device fields read from a description document, plus the raw document when it was
+ * retained. Shared between the {@link DescriptionCache} and every {@link UPnPDevice} built from the
+ * same LOCATION, so it is never modified once the parser hands it out.
+ */
+final class DeviceDescription {
+
+    @Nullable
+    String URLBase;
+    @Nullable
+    String deviceType;
+    @Nullable
+    String friendlyName;
+    @Nullable
+    String presentationURL;
+    @Nullable
+    String serialNumber;
+    @Nullable
+    String modelName;
+    @Nullable
+    String modelNumber;
+    @Nullable
+    String modelURL;
+    @Nullable
+    String manufacturer;
+    @Nullable
+    String manufacturerURL;
+    @Nullable
+    String UDN;
+
+    // Document bytes as received, or deflated in compact mode, decoded on demand by getXml()
+    @Nullable
+    private byte[] mDocument;
+    private boolean mDeflated;
+    private int mLength;
+    @NonNull
+    private String mEncoding = "UTF-8";
+    // Services, icons and embedded devices, parsed from mDocument on first use
+    @Nullable
+    private UPnPEmbeddedDevice mTree;
+
+    void setDocument(@NonNull byte[] document, @NonNull String encoding) {
+        mDeflated = DeviceStorage.isCompact();
+        mDocument = mDeflated ? DeviceStorage.deflate(document) : document;
+        mLength = document.length;
+        mEncoding = encoding;
+    }
+
+    @NonNull
+    String encoding() {
+        return mEncoding;
+    }
+
+    /**
+     * Swaps the fields that repeat across devices for their shared instances in compact mode.
+     */
+    void canonicalize() {
+        deviceType = DeviceStorage.canonical(deviceType);
+        manufacturer = DeviceStorage.canonical(manufacturer);
+        manufacturerURL = DeviceStorage.canonical(manufacturerURL);
+        modelName = DeviceStorage.canonical(modelName);
+        modelNumber = DeviceStorage.canonical(modelNumber);
+        modelURL = DeviceStorage.canonical(modelURL);
+        friendlyName = DeviceStorage.canonical(friendlyName);
+        URLBase = DeviceStorage.canonical(URLBase);
+    }
+
+    /**
+     * @return the retained document as received, inflated if needed, {@code null} when it was
+     * not retained
+     */
+    @Nullable
+    byte[] document() {
+        final byte[] document = mDocument;
+        if (document == null || !mDeflated) {
+            return document;
+        }
+        return DeviceStorage.inflate(document, mLength);
+    }
+
+    /**
+     * @return the root device with its services, icons and embedded devices, parsed once from the
+     * retained document, or on every call when the document is deflated.
+     * {@link UPnPEmbeddedDevice#EMPTY} when the document was not retained.
+     */
+    @NonNull
+    synchronized UPnPEmbeddedDevice getTree() {
+        if (mTree != null) {
+            return mTree;
+        }
+
+        final byte[] document = document();
+        final UPnPEmbeddedDevice tree = document != null ? DescriptionParser.parseTree(document, mEncoding) : UPnPEmbeddedDevice.EMPTY;
+        if (!mDeflated) {
+            mTree = tree;
+        }
+        return tree;
+    }
+
+    /**
+     * @return the document as text, or {@code null} when it was not retained
+     */
+    @Nullable
+    String getXml() {
+        final byte[] document = document();
+        if (document == null) {
+            return null;
+        }
+
+        try {
+            return new String(document, mEncoding);
+        } catch (UnsupportedEncodingException e) {
+            return new String(document, SsdpHeaders.UTF_8);
+        }
+    }
+
+    /**
+     * Compares the documents when both were retained, the parsed fields otherwise.
+     */
+    static boolean same(@Nullable DeviceDescription a, @Nullable DeviceDescription b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a.mDocument != null && b.mDocument != null && a.mDeflated == b.mDeflated) {
+            return Arrays.equals(a.mDocument, b.mDocument);
+        }
+        return equals(a.URLBase, b.URLBase)
+                && equals(a.deviceType, b.deviceType)
+                && equals(a.friendlyName, b.friendlyName)
+                && equals(a.presentationURL, b.presentationURL)
+                && equals(a.serialNumber, b.serialNumber)
+                && equals(a.modelName, b.modelName)
+                && equals(a.modelNumber, b.modelNumber)
+                && equals(a.modelURL, b.modelURL)
+                && equals(a.manufacturer, b.manufacturer)
+                && equals(a.manufacturerURL, b.manufacturerURL)
+                && equals(a.UDN, b.UDN);
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,338 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-lived set of devices keyed by UDN, kept fresh across scans and NOTIFY announcements.
+ * <p>
+ * Every device carries the deadline given by its CACHE-CONTROL max-age. Deadlines are kept in an
+ * expiry-ordered index, and a single timer on the registry's {@link Scheduler} evicts stale
+ * devices, so each insert, refresh and eviction costs O(log n). Deadlines are read from
+ * {@link Scheduler#now()}. Subscribers receive typed added / updated / removed events on that
+ * same {@link Scheduler} instead of diffing whole result sets.
+ */
+public class DeviceRegistry {
+
+    private static final Logger LOG = Logger.getLogger("DeviceRegistry");
+
+    /** Lifetime used for devices that did not announce a max-age, the UPnP minimum. */
+    public static final int DEFAULT_MAX_AGE_SECONDS = DeviceSnapshot.DEFAULT_MAX_AGE_SECONDS;
+
+    public interface Listener {
+        void onDeviceAdded(@NonNull UPnPDevice device);
+
+        void onDeviceUpdated(@NonNull UPnPDevice device);
+
+        void onDeviceRemoved(@NonNull UPnPDevice device);
+    }
+
+    private static final class Entry {
+        @NonNull
+        final String key;
+        @NonNull
+        UPnPDevice device;
+        long expiresAt;
+        // Tie-breaker so entries expiring at the same millisecond stay distinct in the index.
+        long sequence;
+
+        Entry(@NonNull String key, @NonNull UPnPDevice device) {
+            this.key = key;
+            this.device = device;
+        }
+    }
+
+    private static final Comparator<Entry> EXPIRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.expiresAt != b.expiresAt) {
+                return a.expiresAt < b.expiresAt ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    @NonNull
+    private final Scheduler mScheduler;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final TreeSet<Entry> mExpiry = new TreeSet<>(EXPIRY_ORDER);
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private long mSequence;
+    // Deadline the timer is currently armed for, -1 when idle.
+    private long mScheduledAt = -1;
+    // Where changes are saved, and the executor doing the file I/O; null until persistTo()
+    @Nullable
+    private volatile DeviceSnapshot mSnapshot;
+    @Nullable
+    private volatile Executor mSnapshotExecutor;
+
+    private final Runnable mExpiryTask = new Runnable() {
+        @Override
+        public void run() {
+            evictExpired();
+        }
+    };
+
+    /**
+     * @param scheduler clock and thread of the expiry timer and of every event
+     */
+    public DeviceRegistry(@NonNull Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Restores the devices saved in {@code snapshot} as last known devices, reported as added
+     * right away, then mirrors every later addition, change and removal into it on
+     * {@code executor}. A restored device only lives for what was left of its max-age when it was
+     * saved, unless a scan or an announcement refreshes it first; devices that lapsed while the
+     * app was not running are dropped from the snapshot instead.
+     */
+    public void persistTo(@NonNull DeviceSnapshot snapshot, @NonNull Executor executor) {
+        persistTo(snapshot, executor, System.currentTimeMillis());
+    }
+
+    /**
+     * @param wallNow current {@link System#currentTimeMillis()}, the clock of the snapshot
+     */
+    void persistTo(@NonNull DeviceSnapshot snapshot, @NonNull Executor executor, long wallNow) {
+        mSnapshot = null;
+        final List<UPnPDevice> lapsed = new ArrayList<>();
+        for (UPnPDevice device : snapshot.getDevices()) {
+            final long remaining = snapshot.getExpiresAt(device) - wallNow;
+            if (remaining > 0) {
+                put(device, remaining);
+            } else {
+                lapsed.add(device);
+            }
+        }
+        mSnapshotExecutor = executor;
+        mSnapshot = snapshot;
+        for (UPnPDevice device : lapsed) {
+            persist(device, true);
+        }
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Adds a device or refreshes its deadline. An already known device is reported as updated
+     * only when its LOCATION, BOOTID, CONFIGID or description changed.
+     */
+    public void put(@NonNull UPnPDevice device) {
+        final int maxAge = device.getMaxAge() > 0 ? device.getMaxAge() : DEFAULT_MAX_AGE_SECONDS;
+        put(device, maxAge * 1000L);
+    }
+
+    private void put(@NonNull UPnPDevice device, long lifetimeMillis) {
+        final String key = keyOf(device);
+        if (key.isEmpty()) {
+            return;
+        }
+
+        final boolean added;
+        final boolean updated;
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            added = entry == null;
+            if (added) {
+                entry = new Entry(key, device);
+                mEntries.put(key, entry);
+                updated = false;
+            } else {
+                mExpiry.remove(entry);
+                updated = hasChanged(entry.device, device);
+                entry.device = device;
+            }
+
+            entry.expiresAt = mScheduler.now() + lifetimeMillis;
+            entry.sequence = mSequence++;
+            mExpiry.add(entry);
+            scheduleExpiry();
+        }
+
+        if (added) {
+            dispatchAdded(device);
+        } else if (updated) {
+            dispatchUpdated(device);
+        }
+        persist(device, false);
+    }
+
+    /**
+     * Removes a device, for instance after an ssdp:byebye.
+     */
+    public void remove(@NonNull UPnPDevice device) {
+        final Entry entry;
+        synchronized (this) {
+            entry = mEntries.remove(keyOf(device));
+            if (entry == null) {
+                return;
+            }
+            mExpiry.remove(entry);
+            scheduleExpiry();
+        }
+        dispatchRemoved(entry.device);
+        persist(entry.device, true);
+    }
+
+    @Nullable
+    public synchronized UPnPDevice get(@NonNull String udn) {
+        final Entry entry = mEntries.get(udn);
+        return entry != null ? entry.device : null;
+    }
+
+    @NonNull
+    public synchronized List<UPnPDevice> getDevices() {
+        final List<UPnPDevice> result = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            result.add(entry.device);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Removes every device without reporting them and stops the expiry timer.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mExpiry.clear();
+        mScheduler.cancel(mExpiryTask);
+        mScheduledAt = -1;
+    }
+
+    private void evictExpired() {
+        final List<UPnPDevice> removed = new ArrayList<>();
+        synchronized (this) {
+            mScheduledAt = -1;
+            final long now = mScheduler.now();
+            while (!mExpiry.isEmpty() && mExpiry.first().expiresAt <= now) {
+                final Entry entry = mExpiry.pollFirst();
+                mEntries.remove(entry.key);
+                removed.add(entry.device);
+            }
+            scheduleExpiry();
+        }
+
+        for (UPnPDevice device : removed) {
+            dispatchRemoved(device);
+            persist(device, true);
+        }
+    }
+
+    /**
+     * Saves a change to the snapshot, if any, on its executor. The snapshot skips devices that
+     * did not change since they were last saved.
+     */
+    private void persist(@NonNull final UPnPDevice device, final boolean removed) {
+        final DeviceSnapshot snapshot = mSnapshot;
+        final Executor executor = mSnapshotExecutor;
+        if (snapshot == null || executor == null) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (removed) {
+                        snapshot.remove(device);
+                    } else {
+                        snapshot.put(device);
+                    }
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Cannot save device snapshot", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Re-arms the single timer when the earliest deadline changed. Must hold the registry lock.
+     */
+    private void scheduleExpiry() {
+        final long next = mExpiry.isEmpty() ? -1 : mExpiry.first().expiresAt;
+        if (next == mScheduledAt) {
+            return;
+        }
+
+        mScheduler.cancel(mExpiryTask);
+        mScheduledAt = next;
+        if (next != -1) {
+            mScheduler.postDelayed(mExpiryTask, Math.max(0, next - mScheduler.now()));
+        }
+    }
+
+    @NonNull
+    private static String keyOf(@NonNull UPnPDevice device) {
+        if (device.getUDN() != null && !device.getUDN().isEmpty()) {
+            return device.getUDN();
+        }
+        if (!device.getUUID().isEmpty()) {
+            return device.getUUID();
+        }
+        return device.getLocation() != null ? device.getLocation() : "";
+    }
+
+    static boolean hasChanged(@NonNull UPnPDevice old, @NonNull UPnPDevice now) {
+        return !equals(old.getLocation(), now.getLocation())
+                || old.getBootId() != now.getBootId()
+                || old.getConfigId() != now.getConfigId()
+                || !DeviceDescription.same(old.getDescription(), now.getDescription());
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void dispatchAdded(@NonNull final UPnPDevice device) {
+        mScheduler.post(new Runnable() {
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onDeviceAdded(device);
+                }
+            }
+        });
+    }
+
+    private void dispatchUpdated(@NonNull final UPnPDevice device) {
+        mScheduler.post(new Runnable() {
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onDeviceUpdated(device);
+                }
+            }
+        });
+    }
+
+    private void dispatchRemoved(@NonNull final UPnPDevice device) {
+        mScheduler.post(new Runnable() {
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onDeviceRemoved(device);
+                }
+            }
+        });
+    }
+}
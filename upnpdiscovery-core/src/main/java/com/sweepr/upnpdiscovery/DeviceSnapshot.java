@@ -0,0 +1,464 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Last known devices kept in a compact binary file, so an app can show them on start instead of
+ * an empty list while its first scan revalidates them.
+ * <p>
+ * The file is an append-only log: every {@link #put} or {@link #remove} appends one checksummed
+ * record, and the log is rewritten with only the live devices once it has grown to about twice
+ * their number. A record torn by a crash fails its checksum and is dropped, together with
+ * whatever follows it, on the next {@link #open}. Each record holds the SSDP header fields, the
+ * parsed description fields, the wall-clock time at which the device lapses and, optionally, the
+ * raw description document. A restored device is only good for what is left of its lifetime, see
+ * {@link #getExpiresAt}.
+ * <p>
+ * Opening reads the whole file in one go and decodes it from memory. Calls block on file I/O;
+ * keep them off the main thread.
+ */
+public final class DeviceSnapshot implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger("DeviceSnapshot");
+
+    /** Lifetime of devices that did not announce a max-age, the UPnP minimum. */
+    public static final int DEFAULT_MAX_AGE_SECONDS = 1800;
+
+    private static final int MAGIC = 0x55504e53; // "UPNS"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8;
+    private static final byte KIND_PUT = 1;
+    private static final byte KIND_REMOVE = 2;
+    private static final int MAX_RECORD_BYTES = 8 * 1024 * 1024;
+    // Records allowed beyond twice the live devices before the log is rewritten
+    private static final int COMPACTION_SLACK = 64;
+
+    /** Lets the checksum read the encoded record without copying it. */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(512);
+        }
+
+        @NonNull
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static final class Entry {
+        @NonNull
+        final UPnPDevice device;
+        /** Wall-clock time at which the device's max-age, or the default lifetime, runs out. */
+        final long expiresAt;
+
+        Entry(@NonNull UPnPDevice device, long expiresAt) {
+            this.device = device;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @NonNull
+    private final File mFile;
+    private final boolean mRetainDocuments;
+    // Live devices keyed like the results of a search, in the order they were first written
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    private final RecordBuffer mRecord = new RecordBuffer();
+    private final CRC32 mCrc = new CRC32();
+    @Nullable
+    private DataOutputStream mOut;
+    // Records in the file, live or superseded
+    private int mRecordCount;
+
+    private DeviceSnapshot(@NonNull File file, boolean retainDocuments) {
+        mFile = file;
+        mRetainDocuments = retainDocuments;
+    }
+
+    /**
+     * Loads the devices saved in {@code file}, creating it when missing, and keeps it open for
+     * appending.
+     *
+     * @param retainDocuments save the raw description documents too, so
+     *                        {@link UPnPDevice#getDescriptionXML()} and the service tree work
+     *                        on restored devices; documents already in the file are always read
+     */
+    @NonNull
+    public static DeviceSnapshot open(@NonNull File file, boolean retainDocuments) throws IOException {
+        final DeviceSnapshot snapshot = new DeviceSnapshot(file, retainDocuments);
+        snapshot.load();
+        return snapshot;
+    }
+
+    /**
+     * @return the last known devices, oldest first, including those whose max-age has run out
+     * since they were saved
+     */
+    @NonNull
+    public synchronized List<UPnPDevice> getDevices() {
+        final List<UPnPDevice> result = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            result.add(entry.device);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return true when {@code device} is in the snapshot and the max-age it was last saved with
+     * has not run out yet
+     */
+    public synchronized boolean isFresh(@NonNull UPnPDevice device) {
+        return System.currentTimeMillis() < getExpiresAt(device);
+    }
+
+    /**
+     * @return the wall-clock time, in {@link System#currentTimeMillis()} terms, at which the
+     * saved copy of {@code device} lapses: when it was last saved plus its max-age, or
+     * {@link #DEFAULT_MAX_AGE_SECONDS} when it announced none. 0 when it is not in the snapshot.
+     */
+    public synchronized long getExpiresAt(@NonNull UPnPDevice device) {
+        final Entry entry = mEntries.get(SsdpSearch.resultKey(device));
+        return entry != null ? entry.expiresAt : 0;
+    }
+
+    /**
+     * Saves {@code device}, replacing any earlier copy. A device that did not change and whose
+     * saved deadline still has more than half of its max-age to go is not written again, so
+     * feeding every answer of every scan costs little.
+     */
+    public synchronized void put(@NonNull UPnPDevice device) throws IOException {
+        if (append(device)) {
+            out().flush();
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Saves every device of {@code devices} with a single flush.
+     */
+    public synchronized void putAll(@NonNull Collection<UPnPDevice> devices) throws IOException {
+        boolean written = false;
+        for (UPnPDevice device : devices) {
+            written |= append(device);
+        }
+        if (written) {
+            out().flush();
+            compactIfNeeded();
+        }
+    }
+
+    public synchronized void remove(@NonNull UPnPDevice device) throws IOException {
+        final String key = SsdpSearch.resultKey(device);
+        if (mEntries.remove(key) == null) {
+            return;
+        }
+
+        mRecord.reset();
+        final DataOutputStream record = new DataOutputStream(mRecord);
+        record.writeByte(KIND_REMOVE);
+        record.writeUTF(key);
+        writeRecord(out());
+        out().flush();
+        compactIfNeeded();
+    }
+
+    /**
+     * Forgets every device and truncates the file.
+     */
+    public synchronized void clear() throws IOException {
+        mEntries.clear();
+        rewrite();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mOut != null) {
+            mOut.close();
+            mOut = null;
+        }
+    }
+
+    /**
+     * @return false when the write was skipped
+     */
+    private boolean append(@NonNull UPnPDevice device) throws IOException {
+        final String key = SsdpSearch.resultKey(device);
+        if (key.isEmpty()) {
+            return false;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long lifetime = (device.getMaxAge() > 0 ? device.getMaxAge() : DEFAULT_MAX_AGE_SECONDS) * 1000L;
+        final Entry previous = mEntries.get(key);
+        if (previous != null && !hasChanged(previous.device, device) && previous.expiresAt - now > lifetime / 2) {
+            return false;
+        }
+        final long expiresAt = now + lifetime;
+
+        final Entry entry = new Entry(device, expiresAt);
+        encode(key, entry);
+        writeRecord(out());
+        mEntries.put(key, entry);
+        return true;
+    }
+
+    private static boolean hasChanged(@NonNull UPnPDevice old, @NonNull UPnPDevice now) {
+        return !equals(old.getLocation(), now.getLocation())
+                || !equals(old.getHostAddress(), now.getHostAddress())
+                || old.getBootId() != now.getBootId()
+                || old.getConfigId() != now.getConfigId()
+                || !DeviceDescription.same(old.getDescription(), now.getDescription());
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @NonNull
+    private DataOutputStream out() throws IOException {
+        if (mOut == null) {
+            mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true), 16 * 1024));
+        }
+        return mOut;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (mRecordCount > 2 * mEntries.size() + COMPACTION_SLACK) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Writes the live devices to a temporary file and swaps it in.
+     */
+    private void rewrite() throws IOException {
+        close();
+
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            mRecordCount = 0;
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                encode(entry.getKey(), entry.getValue());
+                writeRecord(out);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(mFile)) {
+            // Some file systems refuse to rename over an existing file.
+            if (!mFile.delete() || !temp.renameTo(mFile)) {
+                throw new IOException("Cannot replace " + mFile);
+            }
+        }
+    }
+
+    /**
+     * Encodes a put record into {@link #mRecord}.
+     */
+    private void encode(@NonNull String key, @NonNull Entry entry) throws IOException {
+        final UPnPDevice device = entry.device;
+        mRecord.reset();
+        final DataOutputStream record = new DataOutputStream(mRecord);
+        record.writeByte(KIND_PUT);
+        record.writeUTF(key);
+        record.writeLong(entry.expiresAt);
+        writeString(record, device.getHostAddress());
+        writeString(record, device.getInterfaceName());
+        writeString(record, device.getLocation());
+        writeString(record, device.getServer());
+        writeString(record, device.getUSN());
+        writeString(record, device.getST());
+        record.writeInt(device.getMaxAge());
+        record.writeInt(device.getBootId());
+        record.writeInt(device.getConfigId());
+
+        final DeviceDescription description = device.getDescription();
+        record.writeBoolean(description != null);
+        if (description == null) {
+            return;
+        }
+        writeString(record, description.URLBase);
+        writeString(record, description.deviceType);
+        writeString(record, description.friendlyName);
+        writeString(record, description.presentationURL);
+        writeString(record, description.serialNumber);
+        writeString(record, description.modelName);
+        writeString(record, description.modelNumber);
+        writeString(record, description.modelURL);
+        writeString(record, description.manufacturer);
+        writeString(record, description.manufacturerURL);
+        writeString(record, description.UDN);
+
+        final byte[] document = mRetainDocuments ? description.document() : null;
+        record.writeInt(document != null ? document.length : -1);
+        if (document != null) {
+            record.writeUTF(description.encoding());
+            record.write(document);
+        }
+    }
+
+    /**
+     * Frames {@link #mRecord} as length, payload, CRC-32 of the payload.
+     */
+    private void writeRecord(@NonNull DataOutputStream out) throws IOException {
+        mCrc.reset();
+        mCrc.update(mRecord.buffer(), 0, mRecord.size());
+        out.writeInt(mRecord.size());
+        mRecord.writeTo(out);
+        out.writeInt((int) mCrc.getValue());
+        mRecordCount++;
+    }
+
+    private void load() throws IOException {
+        if (!mFile.exists() || mFile.length() < HEADER_BYTES) {
+            rewrite();
+            return;
+        }
+
+        final byte[] data;
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            data = new byte[(int) file.length()];
+            file.readFully(data);
+        } finally {
+            file.close();
+        }
+
+        if (readInt(data, 0) != MAGIC || readInt(data, 4) != VERSION) {
+            LOG.fine("Discarding " + mFile + ": not a snapshot of this version");
+            rewrite();
+            return;
+        }
+
+        int pos = HEADER_BYTES;
+        while (pos + 8 <= data.length) {
+            final int length = readInt(data, pos);
+            if (length <= 0 || length > MAX_RECORD_BYTES || pos + 8 + length > data.length) {
+                break;
+            }
+            mCrc.reset();
+            mCrc.update(data, pos + 4, length);
+            if ((int) mCrc.getValue() != readInt(data, pos + 4 + length)) {
+                break;
+            }
+
+            try {
+                decode(new DataInputStream(new ByteArrayInputStream(data, pos + 4, length)));
+            } catch (IOException | RuntimeException e) {
+                break;
+            }
+            mRecordCount++;
+            pos += 8 + length;
+        }
+
+        if (pos < data.length) {
+            LOG.fine("Dropping " + (data.length - pos) + " unreadable bytes at the end of " + mFile);
+            final RandomAccessFile truncate = new RandomAccessFile(mFile, "rw");
+            try {
+                truncate.setLength(pos);
+            } finally {
+                truncate.close();
+            }
+        }
+    }
+
+    private void decode(@NonNull DataInputStream in) throws IOException {
+        final byte kind = in.readByte();
+        final String key = in.readUTF();
+        if (kind == KIND_REMOVE) {
+            mEntries.remove(key);
+            return;
+        }
+        if (kind != KIND_PUT) {
+            throw new IOException("Unknown record kind " + kind);
+        }
+
+        final long expiresAt = in.readLong();
+        final String hostAddress = orEmpty(readString(in));
+        final String interfaceName = readString(in);
+        final SsdpHeaders headers = new SsdpHeaders();
+        headers.location = orEmpty(readString(in));
+        headers.server = orEmpty(readString(in));
+        headers.usn = orEmpty(readString(in));
+        headers.st = orEmpty(readString(in));
+        headers.maxAge = in.readInt();
+        headers.bootId = in.readInt();
+        headers.configId = in.readInt();
+        final UPnPDevice device = new UPnPDevice(hostAddress, headers, null, 0, interfaceName);
+
+        if (in.readBoolean()) {
+            final DeviceDescription description = new DeviceDescription();
+            description.URLBase = readString(in);
+            description.deviceType = readString(in);
+            description.friendlyName = readString(in);
+            description.presentationURL = readString(in);
+            description.serialNumber = readString(in);
+            description.modelName = readString(in);
+            description.modelNumber = readString(in);
+            description.modelURL = readString(in);
+            description.manufacturer = readString(in);
+            description.manufacturerURL = readString(in);
+            description.UDN = readString(in);
+            final int documentLength = in.readInt();
+            if (documentLength >= 0) {
+                final String encoding = in.readUTF();
+                final byte[] document = new byte[documentLength];
+                in.readFully(document);
+                description.setDocument(document, encoding);
+            }
+            description.canonicalize();
+            device.update(description);
+        }
+
+        // Re-inserting moves the device to the end, matching the order of the last writes.
+        mEntries.remove(key);
+        mEntries.put(key, new Entry(device, expiresAt));
+    }
+
+    private static void writeString(@NonNull DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    private static String readString(@NonNull DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @NonNull
+    private static String orEmpty(@Nullable String value) {
+        return value == null ? "" : value;
+    }
+
+    private static int readInt(@NonNull byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+    }
+}
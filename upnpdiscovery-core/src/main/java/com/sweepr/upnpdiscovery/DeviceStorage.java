@@ -0,0 +1,129 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Controls how much memory each {@link UPnPDevice} retains, for apps that keep thousands of them.
+ * <p>
+ * In compact mode, devices created from then on:
+ * <ul>
+ * <li>share repeated values such as SERVER, ST, manufacturer and model strings through a bounded
+ * canonicalization table;</li>
+ * <li>drop the raw SSDP datagram; {@link UPnPDevice#getHeader()} rebuilds an equivalent header from
+ * the parsed fields;</li>
+ * <li>keep retained description documents deflated, inflating them on each
+ * {@link UPnPDevice#getDescriptionXML()} and re-parsing services and icons on each access instead
+ * of caching them.</li>
+ * </ul>
+ * Devices created before the mode changes keep the representation they were built with.
+ */
+public final class DeviceStorage {
+
+    /** Distinct values kept in the canonicalization table. */
+    public static final int CANONICAL_TABLE_SIZE = 2048;
+
+    // Longer values are rarely shared and would only crowd the table.
+    private static final int MAX_CANONICAL_LENGTH = 256;
+
+    private static volatile boolean sCompact;
+
+    private static final LinkedHashMap<String, String> sCanonical =
+            new LinkedHashMap<String, String>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > CANONICAL_TABLE_SIZE;
+                }
+            };
+
+    private DeviceStorage() {
+    }
+
+    public static void setCompact(boolean compact) {
+        sCompact = compact;
+        if (!compact) {
+            synchronized (sCanonical) {
+                sCanonical.clear();
+            }
+        }
+    }
+
+    public static boolean isCompact() {
+        return sCompact;
+    }
+
+    /**
+     * @return the shared instance equal to {@code value} in compact mode, {@code value} itself
+     * otherwise
+     */
+    @Nullable
+    static String canonical(@Nullable String value) {
+        if (!sCompact || value == null || value.length() > MAX_CANONICAL_LENGTH) {
+            return value;
+        }
+        if (value.isEmpty()) {
+            return "";
+        }
+
+        synchronized (sCanonical) {
+            final String shared = sCanonical.get(value);
+            if (shared != null) {
+                return shared;
+            }
+            sCanonical.put(value, value);
+            return value;
+        }
+    }
+
+    @NonNull
+    static byte[] deflate(@NonNull byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param length size of the original data
+     */
+    @NonNull
+    static byte[] inflate(@NonNull byte[] data, int length) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            final byte[] result = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                final int read = inflater.inflate(result, offset, length - offset);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += read;
+            }
+            if (offset != length) {
+                throw new IllegalStateException("Corrupt compressed document");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed document", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * One non-blocking socket of an active discovery, together with the multicast groups it searches
+ * and the interface it is bound to.
+ */
+final class DiscoveryChannel {
+
+    private static final Logger LOG = Logger.getLogger("DiscoveryChannel");
+
+    static final String SSDP_ADDRESS_V4 = "239.255.255.250";
+    static final String SSDP_ADDRESS_V6_LINK_LOCAL = "FF02::C";
+    static final String SSDP_ADDRESS_V6_SITE_LOCAL = "FF05::C";
+
+    private static final class Target {
+        @NonNull
+        final InetSocketAddress address;
+        @NonNull
+        final List<byte[]> queries;
+
+        Target(@NonNull InetSocketAddress address, @NonNull List<byte[]> queries) {
+            this.address = address;
+            this.queries = queries;
+        }
+    }
+
+    @NonNull
+    final DatagramChannel channel;
+    /** Interface the channel is bound to, {@code null} for the wildcard socket. */
+    @Nullable
+    final String interfaceName;
+    private final List<Target> mTargets = new ArrayList<>();
+    // Address the channel is bound to and the prefix length of its subnet, null for the wildcard socket
+    @Nullable
+    private final InetAddress mLocal;
+    private final int mPrefixLength;
+
+    private DiscoveryChannel(@NonNull DatagramChannel channel, @Nullable String interfaceName,
+                             @Nullable InetAddress local, int prefixLength) {
+        this.channel = channel;
+        this.interfaceName = interfaceName;
+        mLocal = local;
+        mPrefixLength = prefixLength;
+    }
+
+    /**
+     * Sends every query to every target. A failure is logged and skipped, so one unreachable
+     * group does not stop the others.
+     */
+    void sendAll() {
+        for (Target target : mTargets) {
+            for (byte[] query : target.queries) {
+                try {
+                    channel.send(ByteBuffer.wrap(query), target.address);
+                } catch (IOException e) {
+                    LOG.fine("Send to " + target.address + " on " + interfaceName + " failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends one datagram to a single host, such as a unicast M-SEARCH.
+     */
+    void sendTo(@NonNull InetSocketAddress target, @NonNull byte[] datagram) {
+        try {
+            channel.send(ByteBuffer.wrap(datagram), target);
+        } catch (IOException e) {
+            LOG.fine("Send to " + target + " on " + interfaceName + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if {@code address} can be sent to from this channel: same address family, or
+     * any address for the wildcard socket
+     */
+    boolean canSendTo(@NonNull InetAddress address) {
+        return mLocal == null || mLocal.getClass() == address.getClass();
+    }
+
+    /**
+     * @return true if {@code address} lies in the subnet of the interface this channel is bound to
+     */
+    boolean isOnLink(@NonNull InetAddress address) {
+        if (mLocal == null || !canSendTo(address)) {
+            return false;
+        }
+
+        final byte[] local = mLocal.getAddress();
+        final byte[] remote = address.getAddress();
+        int bits = mPrefixLength;
+        for (int i = 0; i < local.length && bits > 0; i++, bits -= 8) {
+            final int mask = bits >= 8 ? 0xFF : (0xFF << (8 - bits)) & 0xFF;
+            if ((local[i] & mask) != (remote[i] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Single socket on the wildcard address, leaving the route to the OS.
+     */
+    @NonNull
+    static DiscoveryChannel openWildcard(int bindPort, @NonNull InetSocketAddress target, @NonNull List<byte[]> queries) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setReuseAddress(true);
+            channel.socket().setBroadcast(true);
+            channel.socket().bind(new InetSocketAddress(bindPort));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        final DiscoveryChannel result = new DiscoveryChannel(channel, null, null, 0);
+        result.mTargets.add(new Target(target, queries));
+        return result;
+    }
+
+    /**
+     * Opens one socket per address family on every interface that is up and supports
+     * multicast: IPv4 searches 239.255.255.250, IPv6 searches FF02::C and FF05::C. Interfaces
+     * that fail to open are skipped.
+     *
+     * @param setMulticastInterface pin each socket to its interface with {@code IP_MULTICAST_IF}
+     * @return the opened channels, empty when no interface qualified
+     */
+    @NonNull
+    static List<DiscoveryChannel> openPerInterface(@NonNull SearchRequest request, int port, boolean setMulticastInterface) {
+        final List<DiscoveryChannel> result = new ArrayList<>();
+
+        final Enumeration<NetworkInterface> interfaces;
+        try {
+            interfaces = NetworkInterface.getNetworkInterfaces();
+        } catch (IOException e) {
+            LOG.fine("Cannot enumerate interfaces: " + e.getMessage());
+            return result;
+        }
+        if (interfaces == null) {
+            return result;
+        }
+
+        for (NetworkInterface nif : Collections.list(interfaces)) {
+            try {
+                if (!nif.isUp() || nif.isLoopback() || nif.isVirtual() || !nif.supportsMulticast()) {
+                    continue;
+                }
+            } catch (IOException e) {
+                continue;
+            }
+
+            InterfaceAddress v4 = null;
+            InterfaceAddress v6 = null;
+            for (InterfaceAddress entry : nif.getInterfaceAddresses()) {
+                final InetAddress address = entry.getAddress();
+                if (v4 == null && address instanceof Inet4Address) {
+                    v4 = entry;
+                } else if (v6 == null && address instanceof Inet6Address && address.isLinkLocalAddress()) {
+                    v6 = entry;
+                }
+            }
+
+            if (v4 != null) {
+                final DiscoveryChannel channel = open(nif, v4, StandardProtocolFamily.INET, setMulticastInterface);
+                if (channel != null) {
+                    channel.addTarget(request, SSDP_ADDRESS_V4, SSDP_ADDRESS_V4, null, port);
+                    result.add(channel);
+                }
+            }
+            if (v6 != null) {
+                final DiscoveryChannel channel = open(nif, v6, StandardProtocolFamily.INET6, setMulticastInterface);
+                if (channel != null) {
+                    channel.addTarget(request, SSDP_ADDRESS_V6_LINK_LOCAL, "[" + SSDP_ADDRESS_V6_LINK_LOCAL + "]", nif, port);
+                    channel.addTarget(request, SSDP_ADDRESS_V6_SITE_LOCAL, "[" + SSDP_ADDRESS_V6_SITE_LOCAL + "]", null, port);
+                    result.add(channel);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private static DiscoveryChannel open(@NonNull NetworkInterface nif, @NonNull InterfaceAddress local, @NonNull ProtocolFamily family,
+                                         boolean setMulticastInterface) {
+        DatagramChannel channel = null;
+        try {
+            if (setMulticastInterface) {
+                channel = DatagramChannel.open(family);
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, nif);
+            } else {
+                // Without IP_MULTICAST_IF the bound source address is the best hint we can give.
+                channel = DatagramChannel.open();
+            }
+            channel.configureBlocking(false);
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(new InetSocketAddress(local.getAddress(), 0));
+            return new DiscoveryChannel(channel, nif.getName(), local.getAddress(), local.getNetworkPrefixLength());
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.fine("Cannot open " + family + " socket on " + nif.getName() + ": " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                }
+            }
+            return null;
+        }
+    }
+
+    private void addTarget(@NonNull SearchRequest request, @NonNull String group, @NonNull String host,
+                           @Nullable NetworkInterface scope, int port) {
+        try {
+            InetAddress address = InetAddress.getByName(group);
+            if (scope != null) {
+                address = Inet6Address.getByAddress(null, address.getAddress(), scope);
+            }
+            mTargets.add(new Target(new InetSocketAddress(address, port), request.buildQueries(host, port)));
+        } catch (IOException e) {
+            LOG.fine("Cannot resolve " + group + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle to a running discovery, returned right away by {@code UPnPDiscovery.startDiscovery} on
+ * Android or by {@link SsdpSearch#getHandle()}.
+ * <p>
+ * It completes with the discovered devices once the search window has closed and every
+ * description fetch has finished. {@link #cancel(boolean)} stops the socket loop and drops the
+ * outstanding fetches. Callers that must not block register a callback with {@link #whenDone};
+ * callbacks run on the discovery's {@link Scheduler}.
+ */
+public final class DiscoveryHandle implements Future<Set<UPnPDevice>> {
+
+    /**
+     * Condition that ended a discovery, see {@link ScanPolicy}.
+     */
+    public enum FinishReason {
+        /** The MX seconds of the query elapsed. */
+        MX_ELAPSED,
+        /** No answer arrived for the quiet interval and all fetches had completed. */
+        QUIET,
+        /** The hard deadline passed; outstanding fetches were dropped. */
+        HARD_DEADLINE,
+        /** {@link SsdpSearch#abort()} closed the search window. */
+        ABORTED,
+        /** The handle was cancelled. */
+        CANCELLED,
+        /** The socket failed. */
+        ERROR
+    }
+
+    @NonNull
+    private final SsdpSearch mSearch;
+    @NonNull
+    private final Scheduler mScheduler;
+
+    private final List<ResultHandler<Set<UPnPDevice>>> mCallbacks = new ArrayList<>();
+    private boolean mDone;
+    private boolean mCancelled;
+    @Nullable
+    private Set<UPnPDevice> mResult;
+    @Nullable
+    private Exception mError;
+    @Nullable
+    private FinishReason mReason;
+
+    DiscoveryHandle(@NonNull SsdpSearch search, @NonNull Scheduler scheduler) {
+        mSearch = search;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Registers a callback invoked once the discovery completes, fails or is cancelled. A
+     * cancelled discovery reports a {@link CancellationException} to {@code onFailure}.
+     */
+    public void whenDone(@NonNull ResultHandler<Set<UPnPDevice>> callback) {
+        synchronized (this) {
+            if (!mDone) {
+                mCallbacks.add(callback);
+                return;
+            }
+        }
+        deliver(callback);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        final List<ResultHandler<Set<UPnPDevice>>> callbacks;
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mCancelled = true;
+            mReason = FinishReason.CANCELLED;
+            callbacks = drainCallbacks();
+            notifyAll();
+        }
+
+        mSearch.cancel();
+        deliverAll(callbacks);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * @return why the discovery ended, or {@code null} while it is still running.
+     */
+    @Nullable
+    public synchronized FinishReason getFinishReason() {
+        return mReason;
+    }
+
+    @Override
+    public synchronized Set<UPnPDevice> get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized Set<UPnPDevice> get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    void complete(@NonNull Set<UPnPDevice> devices, @NonNull FinishReason reason) {
+        finish(devices, null, reason);
+    }
+
+    void fail(@NonNull Exception e) {
+        finish(null, e, FinishReason.ERROR);
+    }
+
+    private void finish(@Nullable Set<UPnPDevice> devices, @Nullable Exception e, @NonNull FinishReason reason) {
+        final List<ResultHandler<Set<UPnPDevice>>> callbacks;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mResult = devices;
+            mError = e;
+            mReason = reason;
+            callbacks = drainCallbacks();
+            notifyAll();
+        }
+        deliverAll(callbacks);
+    }
+
+    private Set<UPnPDevice> result() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    private List<ResultHandler<Set<UPnPDevice>>> drainCallbacks() {
+        final List<ResultHandler<Set<UPnPDevice>>> callbacks = new ArrayList<>(mCallbacks);
+        mCallbacks.clear();
+        return callbacks;
+    }
+
+    private void deliverAll(@NonNull List<ResultHandler<Set<UPnPDevice>>> callbacks) {
+        for (ResultHandler<Set<UPnPDevice>> callback : callbacks) {
+            deliver(callback);
+        }
+    }
+
+    private void deliver(@NonNull final ResultHandler<Set<UPnPDevice>> callback) {
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Set<UPnPDevice> devices;
+                final Exception error;
+                synchronized (DiscoveryHandle.this) {
+                    devices = mResult;
+                    error = mCancelled ? new CancellationException() : mError;
+                }
+
+                if (error != null) {
+                    callback.onFailure(error);
+                } else {
+                    callback.onSuccess(devices);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,118 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives measurements from {@link SsdpSearch}, the {@link SsdpTransport} it drives and
+ * {@link DescriptionLoader}. Calls come from the socket thread and from the loader's executor,
+ * concurrently, so implementations must be thread-safe and must not block.
+ * <p>
+ * The engine skips every clock read and every call when the sink is {@link #NONE}, so leaving
+ * metrics disabled costs nothing on the receive path.
+ *
+ * @see InMemoryMetrics
+ */
+public interface DiscoveryMetrics {
+
+    /** Disabled metrics, the default everywhere. */
+    DiscoveryMetrics NONE = new DiscoveryMetrics() {
+        @Override
+        public void onScanStarted() {
+        }
+
+        @Override
+        public void onPacketReceived(int length) {
+        }
+
+        @Override
+        public void onPacketTruncated() {
+        }
+
+        @Override
+        public void onPacketRejected() {
+        }
+
+        @Override
+        public void onPacketDuplicate() {
+        }
+
+        @Override
+        public void onPacketFiltered() {
+        }
+
+        @Override
+        public void onFirstResponse(long millis) {
+        }
+
+        @Override
+        public void onFetchStarted(int inFlight) {
+        }
+
+        @Override
+        public void onFetchFinished(long millis, boolean success) {
+        }
+
+        @Override
+        public void onDescriptionParsed(long nanos, long bytes) {
+        }
+
+        @Override
+        public void onScanFinished(long millis, @NonNull DiscoveryHandle.FinishReason reason) {
+        }
+    };
+
+    void onScanStarted();
+
+    /**
+     * A datagram arrived, whatever its content.
+     */
+    void onPacketReceived(int length);
+
+    /**
+     * A datagram filled the whole receive buffer and was dropped.
+     */
+    void onPacketTruncated();
+
+    /**
+     * A datagram was not an {@code HTTP/1.1 200 OK} answer, for instance a NOTIFY or an error.
+     */
+    void onPacketRejected();
+
+    /**
+     * An answer repeated a LOCATION or UUID already seen in the scan and was ignored.
+     */
+    void onPacketDuplicate();
+
+    /**
+     * A {@link SsdpSearch.Filter} rejected the answer, so no description was fetched for it.
+     */
+    void onPacketFiltered();
+
+    /**
+     * @param millis time from the start of the scan to its first datagram
+     */
+    void onFirstResponse(long millis);
+
+    /**
+     * A description request went out on the network.
+     *
+     * @param inFlight requests on the network, this one included
+     */
+    void onFetchStarted(int inFlight);
+
+    /**
+     * @param millis time from the answer to its description, cache hits and queueing included
+     */
+    void onFetchFinished(long millis, boolean success);
+
+    /**
+     * @param nanos time spent parsing, which includes reading the body from the network
+     * @param bytes bytes of the document that were read
+     */
+    void onDescriptionParsed(long nanos, long bytes);
+
+    /**
+     * @param millis time from the start of the scan to its result
+     */
+    void onScanFinished(long millis, @NonNull DiscoveryHandle.FinishReason reason);
+}
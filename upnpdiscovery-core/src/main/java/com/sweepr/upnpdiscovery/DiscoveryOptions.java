@@ -0,0 +1,143 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Per-discovery settings that do not change what is searched for: metrics, batched delivery,
+ * filtering, headers-only mode and the known hosts of a warm start. Immutable, so one instance
+ * can be shared by any number of discoveries; build it with {@link Builder}.
+ */
+public final class DiscoveryOptions {
+
+    public static final DiscoveryOptions DEFAULT = new Builder().build();
+
+    @NonNull
+    private final DiscoveryMetrics mMetrics;
+    private final long mDeliveryIntervalMillis;
+    @Nullable
+    private final SsdpSearch.Filter mFilter;
+    private final boolean mHeadersOnly;
+    @NonNull
+    private final List<InetSocketAddress> mKnownHosts;
+
+    private DiscoveryOptions(@NonNull Builder builder) {
+        mMetrics = builder.mMetrics;
+        mDeliveryIntervalMillis = builder.mDeliveryIntervalMillis;
+        mFilter = builder.mFilter;
+        mHeadersOnly = builder.mHeadersOnly;
+        mKnownHosts = Collections.unmodifiableList(new ArrayList<>(builder.mKnownHosts));
+    }
+
+    @NonNull
+    public DiscoveryMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public long getDeliveryIntervalMillis() {
+        return mDeliveryIntervalMillis;
+    }
+
+    @Nullable
+    public SsdpSearch.Filter getFilter() {
+        return mFilter;
+    }
+
+    public boolean isHeadersOnly() {
+        return mHeadersOnly;
+    }
+
+    @NonNull
+    public List<InetSocketAddress> getKnownHosts() {
+        return mKnownHosts;
+    }
+
+    public static final class Builder {
+        @NonNull
+        private DiscoveryMetrics mMetrics = DiscoveryMetrics.NONE;
+        private long mDeliveryIntervalMillis;
+        @Nullable
+        private SsdpSearch.Filter mFilter;
+        private boolean mHeadersOnly;
+        private final Set<InetSocketAddress> mKnownHosts = new LinkedHashSet<>();
+
+        /**
+         * Reports the discovery, and the description fetches it starts, to {@code metrics}, for
+         * instance an {@link InMemoryMetrics}. Defaults to {@link DiscoveryMetrics#NONE}.
+         */
+        @NonNull
+        public Builder setMetrics(@NonNull DiscoveryMetrics metrics) {
+            mMetrics = metrics;
+            return this;
+        }
+
+        /**
+         * @see SsdpSearch#setDeliveryInterval(long)
+         */
+        @NonNull
+        public Builder setDeliveryInterval(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("millis must not be negative");
+            }
+            mDeliveryIntervalMillis = millis;
+            return this;
+        }
+
+        /**
+         * @see SsdpSearch#setFilter(SsdpSearch.Filter)
+         */
+        @NonNull
+        public Builder setFilter(@Nullable SsdpSearch.Filter filter) {
+            mFilter = filter;
+            return this;
+        }
+
+        /**
+         * @see SsdpSearch#setHeadersOnly(boolean)
+         */
+        @NonNull
+        public Builder setHeadersOnly(boolean headersOnly) {
+            mHeadersOnly = headersOnly;
+            return this;
+        }
+
+        /**
+         * @see SsdpSearch#setKnownHosts(Collection)
+         */
+        @NonNull
+        public Builder setKnownHosts(@NonNull Collection<InetSocketAddress> hosts) {
+            mKnownHosts.clear();
+            mKnownHosts.addAll(hosts);
+            return this;
+        }
+
+        /**
+         * Warm start from {@code devices}, typically the ones found in the previous session: each
+         * is also queried with a unicast M-SEARCH. Devices without a usable address are skipped.
+         */
+        @NonNull
+        public Builder setKnownDevices(@NonNull Collection<UPnPDevice> devices) {
+            mKnownHosts.clear();
+            for (UPnPDevice device : devices) {
+                final InetSocketAddress host = SsdpSearch.knownHostOf(device);
+                if (host != null) {
+                    mKnownHosts.add(host);
+                }
+            }
+            return this;
+        }
+
+        @NonNull
+        public DiscoveryOptions build() {
+            return new DiscoveryOptions(this);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Scheduler} for plain JVM use, running callbacks on a {@link ScheduledExecutorService}.
+ * Give it a single-threaded executor to get the ordering guarantees of an Android
+ * {@code Handler}.
+ */
+public final class ExecutorScheduler implements Scheduler {
+
+    @NonNull
+    private final ScheduledExecutorService mExecutor;
+    // Pending delayed runs per task, so cancel() can find them like Handler.removeCallbacks()
+    private final IdentityHashMap<Runnable, List<ScheduledFuture<?>>> mDelayed = new IdentityHashMap<>();
+
+    public ExecutorScheduler(@NonNull ScheduledExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    @Override
+    public long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public void post(@NonNull Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    @Override
+    public void postDelayed(@NonNull final Runnable task, long delayMillis) {
+        final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+        synchronized (mDelayed) {
+            self[0] = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mDelayed) {
+                        final List<ScheduledFuture<?>> pending = mDelayed.get(task);
+                        if (pending == null || !pending.remove(self[0])) {
+                            return;
+                        }
+                        if (pending.isEmpty()) {
+                            mDelayed.remove(task);
+                        }
+                    }
+                    task.run();
+                }
+            }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+
+            List<ScheduledFuture<?>> pending = mDelayed.get(task);
+            if (pending == null) {
+                pending = new ArrayList<>(1);
+                mDelayed.put(task, pending);
+            }
+            pending.add(self[0]);
+        }
+    }
+
+    @Override
+    public void cancel(@NonNull Runnable task) {
+        final List<ScheduledFuture<?>> pending;
+        synchronized (mDelayed) {
+            pending = mDelayed.remove(task);
+        }
+        if (pending != null) {
+            for (ScheduledFuture<?> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+}
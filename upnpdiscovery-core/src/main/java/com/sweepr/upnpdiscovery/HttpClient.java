@@ -0,0 +1,49 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Minimal HTTP GET used by {@link DescriptionLoader} to download description documents.
+ * Implementations are called concurrently from the loader's executor.
+ *
+ * @see UrlConnectionHttpClient
+ */
+public interface HttpClient {
+
+    interface Response {
+        int getStatus();
+
+        /**
+         * @return the value of response header {@code name}, matched case-insensitively
+         */
+        @Nullable
+        String getHeader(@NonNull String name);
+
+        @NonNull
+        InputStream getBody() throws IOException;
+
+        /**
+         * Hands the connection back for reuse by a later request to the same host, once the body
+         * has been read or is no longer needed. Implementations without keep-alive simply close.
+         */
+        void release();
+
+        /**
+         * Drops the connection. Called from another thread, aborts a read in progress.
+         */
+        void close();
+    }
+
+    /**
+     * Sends a GET and returns once the status line and headers have arrived.
+     *
+     * @param headers extra request headers
+     */
+    @NonNull
+    Response get(@NonNull String url, @NonNull Map<String, String> headers) throws IOException;
+}
@@ -0,0 +1,198 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link DiscoveryMetrics} kept in lock-free counters, accumulated over every scan it is attached
+ * to until {@link #reset()}. {@link #snapshot()} flattens them into named values for whatever
+ * monitoring system the app exports to.
+ * <p>
+ * Durations go into fixed millisecond buckets; a bucket named {@code le_100} counts the values
+ * from the previous bound up to 100 ms, and {@code le_inf} the rest.
+ */
+public final class InMemoryMetrics implements DiscoveryMetrics {
+
+    private static final long[] BUCKETS_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+
+    private final AtomicLong mScans = new AtomicLong();
+    private final AtomicLong mPacketsReceived = new AtomicLong();
+    private final AtomicLong mPacketBytes = new AtomicLong();
+    private final AtomicLong mPacketsTruncated = new AtomicLong();
+    private final AtomicLong mPacketsRejected = new AtomicLong();
+    private final AtomicLong mPacketsDuplicate = new AtomicLong();
+    private final AtomicLong mPacketsFiltered = new AtomicLong();
+    private final AtomicLong mFetchesStarted = new AtomicLong();
+    private final AtomicLong mFetchesFailed = new AtomicLong();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+    private final AtomicLong mParses = new AtomicLong();
+    private final AtomicLong mParseNanos = new AtomicLong();
+    private final AtomicLong mParseBytes = new AtomicLong();
+    private final Histogram mFirstResponse = new Histogram();
+    private final Histogram mFetchLatency = new Histogram();
+    private final Histogram mScanDuration = new Histogram();
+
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_MILLIS.length + 1);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long millis) {
+            int bucket = 0;
+            while (bucket < BUCKETS_MILLIS.length && millis > BUCKETS_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(millis);
+
+            long current;
+            while (millis > (current = max.get()) && !max.compareAndSet(current, millis)) {
+                // Lost the race to another thread; retry against its value.
+            }
+        }
+
+        void export(@NonNull String name, @NonNull Map<String, Long> out) {
+            out.put(name + ".count", count.get());
+            out.put(name + ".sum_ms", sum.get());
+            out.put(name + ".max_ms", max.get());
+            for (int i = 0; i < buckets.length(); i++) {
+                final String bound = i < BUCKETS_MILLIS.length ? Long.toString(BUCKETS_MILLIS[i]) : "inf";
+                out.put(name + ".le_" + bound, buckets.get(i));
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+    }
+
+    @Override
+    public void onScanStarted() {
+        mScans.incrementAndGet();
+    }
+
+    @Override
+    public void onPacketReceived(int length) {
+        mPacketsReceived.incrementAndGet();
+        mPacketBytes.addAndGet(length);
+    }
+
+    @Override
+    public void onPacketTruncated() {
+        mPacketsTruncated.incrementAndGet();
+    }
+
+    @Override
+    public void onPacketRejected() {
+        mPacketsRejected.incrementAndGet();
+    }
+
+    @Override
+    public void onPacketDuplicate() {
+        mPacketsDuplicate.incrementAndGet();
+    }
+
+    @Override
+    public void onPacketFiltered() {
+        mPacketsFiltered.incrementAndGet();
+    }
+
+    @Override
+    public void onFirstResponse(long millis) {
+        mFirstResponse.record(millis);
+    }
+
+    @Override
+    public void onFetchStarted(int inFlight) {
+        mFetchesStarted.incrementAndGet();
+        int current;
+        while (inFlight > (current = mMaxInFlight.get()) && !mMaxInFlight.compareAndSet(current, inFlight)) {
+            // Lost the race to another thread; retry against its value.
+        }
+    }
+
+    @Override
+    public void onFetchFinished(long millis, boolean success) {
+        mFetchLatency.record(millis);
+        if (!success) {
+            mFetchesFailed.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onDescriptionParsed(long nanos, long bytes) {
+        mParses.incrementAndGet();
+        mParseNanos.addAndGet(nanos);
+        mParseBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void onScanFinished(long millis, @NonNull DiscoveryHandle.FinishReason reason) {
+        mScanDuration.record(millis);
+    }
+
+    /**
+     * @return every value under a stable dotted name, in a fixed order. Counters only grow until
+     * {@link #reset()}.
+     */
+    @NonNull
+    public Map<String, Long> snapshot() {
+        final Map<String, Long> out = new LinkedHashMap<>();
+        out.put("scans", mScans.get());
+        out.put("packets.received", mPacketsReceived.get());
+        out.put("packets.bytes", mPacketBytes.get());
+        out.put("packets.truncated", mPacketsTruncated.get());
+        out.put("packets.rejected", mPacketsRejected.get());
+        out.put("packets.duplicate", mPacketsDuplicate.get());
+        out.put("packets.filtered", mPacketsFiltered.get());
+        out.put("fetch.started", mFetchesStarted.get());
+        out.put("fetch.failed", mFetchesFailed.get());
+        out.put("fetch.max_in_flight", (long) mMaxInFlight.get());
+        out.put("parse.count", mParses.get());
+        out.put("parse.nanos", mParseNanos.get());
+        out.put("parse.bytes", mParseBytes.get());
+        mFirstResponse.export("first_response", out);
+        mFetchLatency.export("fetch.latency", out);
+        mScanDuration.export("scan.duration", out);
+        return out;
+    }
+
+    /**
+     * Zeroes every value. Measurements reported while resetting may be partly lost.
+     */
+    public void reset() {
+        mScans.set(0);
+        mPacketsReceived.set(0);
+        mPacketBytes.set(0);
+        mPacketsTruncated.set(0);
+        mPacketsRejected.set(0);
+        mPacketsDuplicate.set(0);
+        mPacketsFiltered.set(0);
+        mFetchesStarted.set(0);
+        mFetchesFailed.set(0);
+        mMaxInFlight.set(0);
+        mParses.set(0);
+        mParseNanos.set(0);
+        mParseBytes.set(0);
+        mFirstResponse.reset();
+        mFetchLatency.reset();
+        mScanDuration.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryMetrics" + snapshot();
+    }
+}
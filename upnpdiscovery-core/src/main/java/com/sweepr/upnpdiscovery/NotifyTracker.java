@@ -0,0 +1,267 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows the SSDP NOTIFY announcements devices send on their own, the state behind passive
+ * discovery.
+ * <p>
+ * Descriptions are only fetched for devices that were not known yet, or whose LOCATION or
+ * CONFIGID.UPNP.ORG changed. Repeated ssdp:alive / ssdp:update announcements of a known device cost
+ * a header parse and nothing else. A device is forgotten on ssdp:byebye, or once the CACHE-CONTROL
+ * max-age of its last announcement runs out; a single timer on the {@link Scheduler} sweeps lapsed
+ * devices. Events are delivered on that same {@link Scheduler}.
+ */
+final class NotifyTracker {
+
+    private static final String NTS_ALIVE = "ssdp:alive";
+    private static final String NTS_UPDATE = "ssdp:update";
+    private static final String NTS_BYEBYE = "ssdp:byebye";
+
+    interface Listener {
+        void onDeviceAlive(@NonNull UPnPDevice device);
+
+        void onDeviceUpdated(@NonNull UPnPDevice device);
+
+        void onDeviceRefreshed(@NonNull UPnPDevice device);
+
+        /**
+         * The device said ssdp:byebye, or its last announcement lapsed.
+         */
+        void onDeviceByeBye(@NonNull UPnPDevice device);
+    }
+
+    /** What we know about one physical device, keyed by its UUID. */
+    private static final class KnownDevice {
+        @NonNull
+        final UPnPDevice device;
+        /** True once its description was fetched and reported. */
+        boolean described;
+        /** {@link Scheduler#now()} at which the last announcement lapses. */
+        long expiresAt;
+
+        KnownDevice(@NonNull UPnPDevice device) {
+            this.device = device;
+        }
+    }
+
+    @NonNull
+    private final Scheduler mScheduler;
+    @NonNull
+    private final DescriptionLoader mLoader;
+    @NonNull
+    private final Listener mListener;
+    private final Map<String, KnownDevice> mKnown = new HashMap<>();
+    // Deadline the sweep is currently armed for, -1 when idle. Guarded by mKnown.
+    private long mScheduledAt = -1;
+
+    private final Runnable mExpiryTask = new Runnable() {
+        @Override
+        public void run() {
+            evictExpired();
+        }
+    };
+
+    NotifyTracker(@NonNull Scheduler scheduler, @NonNull DescriptionLoader loader, @NonNull Listener listener) {
+        mScheduler = scheduler;
+        mLoader = loader;
+        mListener = listener;
+    }
+
+    /**
+     * Handles one NOTIFY datagram received from {@code hostAddress}. Other messages are ignored.
+     */
+    void handleNotify(@NonNull String hostAddress, @NonNull byte[] data, int length) {
+        final SsdpHeaders headers = SsdpHeaders.parse(data, 0, length);
+        final String uuid = UPnPDevice.uuidOf(headers.usn);
+        final String key = uuid.isEmpty() ? headers.location : uuid;
+        if (key.isEmpty()) {
+            return;
+        }
+
+        if (NTS_BYEBYE.equalsIgnoreCase(headers.nts)) {
+            final KnownDevice gone;
+            synchronized (mKnown) {
+                gone = mKnown.remove(key);
+            }
+            if (gone != null && gone.described) {
+                notifyByeBye(gone.device);
+            }
+            return;
+        }
+
+        if (!NTS_ALIVE.equalsIgnoreCase(headers.nts) && !NTS_UPDATE.equalsIgnoreCase(headers.nts)) {
+            return;
+        }
+        if (headers.location.isEmpty()) {
+            return;
+        }
+
+        final long expiresAt = mScheduler.now()
+                + (headers.maxAge > 0 ? headers.maxAge : DeviceRegistry.DEFAULT_MAX_AGE_SECONDS) * 1000L;
+        final boolean updated;
+        final KnownDevice entry;
+        synchronized (mKnown) {
+            final KnownDevice known = mKnown.get(key);
+            if (known != null && !hasChanged(known.device, headers)) {
+                // Only moves the deadline later, so the armed sweep stays valid.
+                known.expiresAt = expiresAt;
+                if (known.described) {
+                    notifyRefreshed(known.device);
+                }
+                return;
+            }
+
+            updated = known != null && known.described;
+            entry = new KnownDevice(new UPnPDevice(hostAddress, headers, data, length, null));
+            entry.expiresAt = expiresAt;
+            mKnown.put(key, entry);
+            scheduleExpiry(expiresAt);
+        }
+        fetchDescription(key, entry, updated);
+    }
+
+    /**
+     * @return how many devices are currently known, described or not
+     */
+    int size() {
+        synchronized (mKnown) {
+            return mKnown.size();
+        }
+    }
+
+    /**
+     * Forgets every device without reporting them, stops the sweep and drops outstanding
+     * description fetches.
+     */
+    void stop() {
+        synchronized (mKnown) {
+            mKnown.clear();
+            mScheduler.cancel(mExpiryTask);
+            mScheduledAt = -1;
+        }
+        mLoader.cancel(this);
+    }
+
+    /**
+     * A device needs a new description when it moved to another LOCATION or announced a new
+     * configuration. A new BOOTID alone does not change the description.
+     */
+    private static boolean hasChanged(@NonNull UPnPDevice device, @NonNull SsdpHeaders headers) {
+        return !device.getLocation().equals(headers.location) || device.getConfigId() != headers.configId;
+    }
+
+    private void fetchDescription(@NonNull final String key, @NonNull final KnownDevice entry, final boolean updated) {
+        final UPnPDevice device = entry.device;
+        mLoader.fetch(device.getLocation(), device.getMaxAge(), this, new ResultHandler<DeviceDescription>() {
+            @Override
+            public void onSuccess(DeviceDescription description) {
+                synchronized (mKnown) {
+                    if (mKnown.get(key) != entry) {
+                        // Superseded by a newer announcement, a byebye or its expiry.
+                        return;
+                    }
+                    device.update(description);
+                    entry.described = true;
+                }
+
+                if (updated) {
+                    notifyUpdated(device);
+                } else {
+                    notifyAlive(device);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                synchronized (mKnown) {
+                    if (mKnown.get(key) == entry) {
+                        // Forget it so the next announcement retries.
+                        mKnown.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private void evictExpired() {
+        final List<UPnPDevice> lapsed = new ArrayList<>();
+        synchronized (mKnown) {
+            mScheduledAt = -1;
+            final long now = mScheduler.now();
+            long next = -1;
+            final Iterator<KnownDevice> it = mKnown.values().iterator();
+            while (it.hasNext()) {
+                final KnownDevice known = it.next();
+                if (known.expiresAt <= now) {
+                    it.remove();
+                    if (known.described) {
+                        lapsed.add(known.device);
+                    }
+                } else if (next == -1 || known.expiresAt < next) {
+                    next = known.expiresAt;
+                }
+            }
+            if (next != -1) {
+                scheduleExpiry(next);
+            }
+        }
+
+        for (UPnPDevice device : lapsed) {
+            notifyByeBye(device);
+        }
+    }
+
+    /**
+     * Arms the sweep for {@code deadline} unless it already fires earlier. Deadlines only move
+     * later on refresh, so a sweep that fires early just finds nothing and re-arms. Must hold
+     * {@link #mKnown}.
+     */
+    private void scheduleExpiry(long deadline) {
+        if (mScheduledAt != -1 && mScheduledAt <= deadline) {
+            return;
+        }
+
+        mScheduler.cancel(mExpiryTask);
+        mScheduledAt = deadline;
+        mScheduler.postDelayed(mExpiryTask, Math.max(0, deadline - mScheduler.now()));
+    }
+
+    private void notifyAlive(@NonNull final UPnPDevice device) {
+        mScheduler.post(new Runnable() {
+            public void run() {
+                mListener.onDeviceAlive(device);
+            }
+        });
+    }
+
+    private void notifyUpdated(@NonNull final UPnPDevice device) {
+        mScheduler.post(new Runnable() {
+            public void run() {
+                mListener.onDeviceUpdated(device);
+            }
+        });
+    }
+
+    private void notifyRefreshed(@NonNull final UPnPDevice device) {
+        mScheduler.post(new Runnable() {
+            public void run() {
+                mListener.onDeviceRefreshed(device);
+            }
+        });
+    }
+
+    private void notifyByeBye(@NonNull final UPnPDevice device) {
+        mScheduler.post(new Runnable() {
+            public void run() {
+                mListener.onDeviceByeBye(device);
+            }
+        });
+    }
+}
@@ -0,0 +1,42 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Small process-wide pool of datagram receive buffers, so a burst of scans does not allocate a
+ * fresh buffer each time.
+ */
+final class ReceiveBufferPool {
+
+    /** Large enough for any sane SSDP message; anything filling it completely was truncated. */
+    static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED = 4;
+
+    private static final ArrayDeque<ByteBuffer> sPool = new ArrayDeque<>();
+
+    private ReceiveBufferPool() {
+    }
+
+    @NonNull
+    static ByteBuffer acquire() {
+        synchronized (sPool) {
+            final ByteBuffer buffer = sPool.poll();
+            if (buffer != null) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    static void release(@NonNull ByteBuffer buffer) {
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOLED) {
+                sPool.push(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.sweepr.upnpdiscovery;
+
+/**
+ * Decides when a discovery stops listening for M-SEARCH answers.
+ * <p>
+ * The search window closes after the MX seconds announced in the query, or earlier once no answer
+ * has arrived for {@code quietMillis} and every description fetch started so far has completed.
+ * Whatever happens, the discovery finishes {@code hardDeadlineMillis} after it started; fetches
+ * still outstanding at that point are dropped.
+ */
+public final class ScanPolicy {
+
+    public static final long DEFAULT_QUIET_MILLIS = 300;
+    public static final long DEFAULT_HARD_DEADLINE_MILLIS = 5000;
+
+    public static final ScanPolicy DEFAULT = new ScanPolicy(DEFAULT_QUIET_MILLIS, DEFAULT_HARD_DEADLINE_MILLIS);
+
+    private final long mQuietMillis;
+    private final long mHardDeadlineMillis;
+
+    /**
+     * @param quietMillis        quiet interval after the last answer, or 0 to always wait for MX
+     * @param hardDeadlineMillis upper bound on the whole discovery, fetches included
+     */
+    public ScanPolicy(long quietMillis, long hardDeadlineMillis) {
+        if (quietMillis < 0 || hardDeadlineMillis <= 0) {
+            throw new IllegalArgumentException("quietMillis must be >= 0 and hardDeadlineMillis > 0");
+        }
+        mQuietMillis = quietMillis;
+        mHardDeadlineMillis = hardDeadlineMillis;
+    }
+
+    public long getQuietMillis() {
+        return mQuietMillis;
+    }
+
+    public long getHardDeadlineMillis() {
+        return mHardDeadlineMillis;
+    }
+}
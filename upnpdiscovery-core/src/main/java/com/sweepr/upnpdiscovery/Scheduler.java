@@ -0,0 +1,27 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Clock and callback thread of a discovery. Listener callbacks, {@link DiscoveryHandle#whenDone}
+ * callbacks and the hard deadline all go through it, so they run one at a time and in order as
+ * long as the implementation is backed by a single thread, as an Android {@code Handler} is.
+ *
+ * @see ExecutorScheduler
+ */
+public interface Scheduler {
+
+    /**
+     * @return a monotonic time in milliseconds, unrelated to wall-clock time
+     */
+    long now();
+
+    void post(@NonNull Runnable task);
+
+    void postDelayed(@NonNull Runnable task, long delayMillis);
+
+    /**
+     * Removes every pending delayed run of {@code task}.
+     */
+    void cancel(@NonNull Runnable task);
+}
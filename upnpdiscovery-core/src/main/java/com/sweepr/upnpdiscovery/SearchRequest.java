@@ -0,0 +1,148 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * What an active discovery searches for and how often it asks.
+ * <p>
+ * One M-SEARCH per search target (ST) is sent at every slot of the retransmission schedule, all
+ * from the same socket, and every answer lands in the same result set. Each slot is delayed by a
+ * random jitter, and slots that would fall in the second half of the MX window are dropped so
+ * devices still have time to answer the last copy.
+ * <p>
+ * Common targets: {@code ssdp:all} for every device,
+ * {@code urn:schemas-upnp-org:service:AVTransport:1} for Sonos,
+ * {@code urn:schemas-upnp-org:device:InternetGatewayDevice:1} for routers.
+ */
+public final class SearchRequest {
+
+    public static final String SSDP_ALL = "ssdp:all";
+    public static final int DEFAULT_MX_SECONDS = 1;
+    public static final long DEFAULT_JITTER_MILLIS = 20;
+
+    private static final long[] DEFAULT_SCHEDULE_MILLIS = {0, 100, 300};
+    private static final int MAX_MX_SECONDS = 5;
+    private static final String LINE_END = "\r\n";
+
+    public static final SearchRequest DEFAULT = new SearchRequest(Collections.singletonList(SSDP_ALL));
+
+    @NonNull
+    private final List<String> mTargets;
+    private final int mMx;
+    @NonNull
+    private final long[] mScheduleMillis;
+    private final long mJitterMillis;
+
+    public SearchRequest(@NonNull List<String> targets) {
+        this(targets, DEFAULT_MX_SECONDS, DEFAULT_SCHEDULE_MILLIS, DEFAULT_JITTER_MILLIS);
+    }
+
+    /**
+     * @param targets        ST values, one M-SEARCH each per transmission
+     * @param mx             MX seconds, clamped to the 1..5 allowed by UPnP
+     * @param scheduleMillis offsets from the start of the scan at which all targets are sent
+     * @param jitterMillis   upper bound of the random delay added to every offset
+     */
+    public SearchRequest(@NonNull List<String> targets, int mx, @NonNull long[] scheduleMillis, long jitterMillis) {
+        if (targets.isEmpty() || scheduleMillis.length == 0) {
+            throw new IllegalArgumentException("targets and scheduleMillis must not be empty");
+        }
+        if (jitterMillis < 0) {
+            throw new IllegalArgumentException("jitterMillis must be >= 0");
+        }
+
+        mTargets = Collections.unmodifiableList(new ArrayList<>(targets));
+        mMx = Math.max(1, Math.min(mx, MAX_MX_SECONDS));
+        mScheduleMillis = scheduleMillis.clone();
+        Arrays.sort(mScheduleMillis);
+        mJitterMillis = jitterMillis;
+    }
+
+    @NonNull
+    public List<String> getTargets() {
+        return mTargets;
+    }
+
+    public int getMx() {
+        return mMx;
+    }
+
+    @NonNull
+    public long[] getScheduleMillis() {
+        return mScheduleMillis.clone();
+    }
+
+    public long getJitterMillis() {
+        return mJitterMillis;
+    }
+
+    /**
+     * @return one encoded M-SEARCH datagram per target
+     */
+    @NonNull
+    List<byte[]> buildQueries(@NonNull String address, int port) {
+        final List<byte[]> result = new ArrayList<>(mTargets.size());
+        for (String target : mTargets) {
+            final String query = "M-SEARCH * HTTP/1.1" + LINE_END +
+                    "HOST: " + address + ":" + port + LINE_END +
+                    "MAN: \"ssdp:discover\"" + LINE_END +
+                    "MX: " + mMx + LINE_END +
+                    "ST: " + target + LINE_END +
+                    LINE_END;
+            result.add(query.getBytes(SsdpHeaders.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * @return a UPnP 1.1 unicast M-SEARCH for {@code target} addressed to {@code host}, which
+     * carries no MX: the device answers right away
+     */
+    @NonNull
+    static byte[] buildUnicastQuery(@NonNull String target, @NonNull InetSocketAddress host) {
+        final InetAddress address = host.getAddress();
+        String hostName = address != null ? address.getHostAddress() : host.getHostName();
+        if (address instanceof Inet6Address) {
+            final int scope = hostName.indexOf('%');
+            hostName = "[" + (scope >= 0 ? hostName.substring(0, scope) : hostName) + "]";
+        }
+        final String query = "M-SEARCH * HTTP/1.1" + LINE_END +
+                "HOST: " + hostName + ":" + host.getPort() + LINE_END +
+                "MAN: \"ssdp:discover\"" + LINE_END +
+                "ST: " + target + LINE_END +
+                LINE_END;
+        return query.getBytes(SsdpHeaders.UTF_8);
+    }
+
+    /**
+     * @return jittered send offsets in ascending order, limited to the first half of the MX window
+     */
+    @NonNull
+    long[] buildSendOffsets(@NonNull Random random) {
+        final long limit = mMx * 1000L / 2;
+        final long[] offsets = new long[mScheduleMillis.length];
+        int count = 0;
+        for (long scheduled : mScheduleMillis) {
+            long offset = scheduled;
+            if (mJitterMillis > 0 && scheduled > 0) {
+                offset += (long) (random.nextDouble() * mJitterMillis);
+            }
+            if (offset <= limit) {
+                offsets[count++] = Math.max(0, offset);
+            }
+        }
+
+        final long[] result = Arrays.copyOf(offsets, Math.max(count, 1));
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Set of byte strings that can be probed with a range of a receive buffer, so telling a duplicate
+ * SSDP answer apart costs no allocation. Keys are copied out of the buffer only when added.
+ * Not thread-safe.
+ */
+final class SeenKeys {
+
+    // Open addressing with linear probing; the length is a power of two, at most half full
+    private byte[][] mKeys = new byte[64][];
+    private int[] mHashes = new int[64];
+    private int mSize;
+
+    /**
+     * @return true if the bytes {@code data[start, end)} were added before
+     */
+    boolean contains(@NonNull byte[] data, int start, int end) {
+        final int hash = hash(data, start, end);
+        final int mask = mKeys.length - 1;
+        for (int i = hash & mask; mKeys[i] != null; i = (i + 1) & mask) {
+            if (mHashes[i] == hash && equals(mKeys[i], data, start, end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a copy of {@code data[start, end)}, unless it is already present.
+     */
+    void add(@NonNull byte[] data, int start, int end) {
+        if (contains(data, start, end)) {
+            return;
+        }
+        if (mSize + 1 > mKeys.length / 2) {
+            grow();
+        }
+        insert(Arrays.copyOfRange(data, start, end), hash(data, start, end));
+        mSize++;
+    }
+
+    void clear() {
+        Arrays.fill(mKeys, null);
+        mSize = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    private void grow() {
+        final byte[][] keys = mKeys;
+        final int[] hashes = mHashes;
+        mKeys = new byte[keys.length * 2][];
+        mHashes = new int[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                insert(keys[i], hashes[i]);
+            }
+        }
+    }
+
+    private void insert(@NonNull byte[] key, int hash) {
+        final int mask = mKeys.length - 1;
+        int i = hash & mask;
+        while (mKeys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = key;
+        mHashes[i] = hash;
+    }
+
+    private static int hash(byte[] data, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + data[i];
+        }
+        // Spread the high bits, as HashMap does, since only the low ones pick the slot.
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] data, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != data[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * {@link SsdpTransport} over non-blocking datagram channels sharing one {@link Selector}, so all
+ * interfaces are searched in parallel from a single thread.
+ */
+public final class SelectorTransport implements SsdpTransport {
+
+    private static final Logger LOG = Logger.getLogger("SelectorTransport");
+
+    @NonNull
+    private final Selector mSelector;
+    @NonNull
+    private final List<DiscoveryChannel> mChannels;
+    @NonNull
+    private final ByteBuffer mBuffer;
+
+    private SelectorTransport(@NonNull Selector selector, @NonNull List<DiscoveryChannel> channels) {
+        mSelector = selector;
+        mChannels = channels;
+        mBuffer = ReceiveBufferPool.acquire();
+    }
+
+    /**
+     * @param setMulticastInterface pin each per-interface socket with {@code IP_MULTICAST_IF};
+     *                              needs Java 7 socket options, i.e. Android N or later
+     */
+    @NonNull
+    public static Factory factory(final boolean setMulticastInterface) {
+        return new Factory() {
+            @NonNull
+            @Override
+            public SsdpTransport open(@Nullable SearchRequest request, @NonNull InetSocketAddress group,
+                                      @NonNull List<byte[]> queries) throws IOException {
+                final List<DiscoveryChannel> channels = new ArrayList<>();
+                if (request != null) {
+                    channels.addAll(DiscoveryChannel.openPerInterface(request, group.getPort(), setMulticastInterface));
+                }
+
+                Selector selector = null;
+                try {
+                    if (channels.isEmpty()) {
+                        // A unicast target, such as a device simulator on loopback, may own that port itself.
+                        final int bindPort = group.getAddress().isMulticastAddress() ? group.getPort() : 0;
+                        channels.add(DiscoveryChannel.openWildcard(bindPort, group, queries));
+                    }
+                    selector = Selector.open();
+                    for (DiscoveryChannel channel : channels) {
+                        channel.channel.register(selector, SelectionKey.OP_READ, channel);
+                    }
+                    return new SelectorTransport(selector, channels);
+                } catch (IOException e) {
+                    for (DiscoveryChannel channel : channels) {
+                        channel.close();
+                    }
+                    if (selector != null) {
+                        selector.close();
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    @Override
+    public void send() {
+        for (DiscoveryChannel channel : mChannels) {
+            channel.sendAll();
+        }
+    }
+
+    @Override
+    public void sendTo(@NonNull InetSocketAddress target, @NonNull byte[] datagram) {
+        final InetAddress address = target.getAddress();
+        if (address == null) {
+            return;
+        }
+
+        DiscoveryChannel best = null;
+        for (DiscoveryChannel channel : mChannels) {
+            if (channel.isOnLink(address)) {
+                best = channel;
+                break;
+            }
+            if (best == null && channel.canSendTo(address)) {
+                best = channel;
+            }
+        }
+        if (best != null) {
+            best.sendTo(target, datagram);
+        }
+    }
+
+    @Override
+    public int receive(long timeoutMillis, @NonNull Receiver receiver) throws IOException {
+        if (mSelector.select(timeoutMillis) == 0) {
+            return 0;
+        }
+
+        int received = 0;
+        final Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+
+            final DiscoveryChannel ready = (DiscoveryChannel) key.attachment();
+            mBuffer.clear();
+            SocketAddress from;
+            while ((from = ready.channel.receive(mBuffer)) != null) {
+                mBuffer.flip();
+                received++;
+                if (mBuffer.limit() == mBuffer.capacity()) {
+                    LOG.fine("Dropping truncated response from " + from);
+                    receiver.onTruncated((InetSocketAddress) from);
+                } else {
+                    receiver.onDatagram((InetSocketAddress) from, ready.interfaceName, mBuffer.array(), mBuffer.limit());
+                }
+                mBuffer.clear();
+            }
+        }
+        return received;
+    }
+
+    @Override
+    public void wakeup() {
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void close() {
+        for (DiscoveryChannel channel : mChannels) {
+            channel.close();
+        }
+        try {
+            mSelector.close();
+        } catch (IOException ignore) {
+        }
+        ReceiveBufferPool.release(mBuffer);
+    }
+}
@@ -0,0 +1,156 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Read-only view of the headers of one M-SEARCH answer, handed to a {@link SsdpSearch.Filter}
+ * before anything else is done with it. The search reuses a single instance for every answer, so
+ * it is only valid during the call.
+ */
+public final class SsdpAnswer {
+
+    private static final int DEFAULT_HTTP_PORT = 80;
+
+    private InetSocketAddress mFrom;
+    @Nullable
+    private String mInterfaceName;
+    private SsdpHeaders mHeaders;
+    // Bounds of the host in mHeaders.location, computed on first use; mHostStart is -2 until then
+    private int mHostStart = -2;
+    private int mHostEnd;
+
+    SsdpAnswer() {
+    }
+
+    @NonNull
+    SsdpAnswer reset(@NonNull InetSocketAddress from, @Nullable String interfaceName, @NonNull SsdpHeaders headers) {
+        mFrom = from;
+        mInterfaceName = interfaceName;
+        mHeaders = headers;
+        mHostStart = -2;
+        return this;
+    }
+
+    /**
+     * @return the address the datagram came from
+     */
+    @NonNull
+    public InetSocketAddress getFrom() {
+        return mFrom;
+    }
+
+    /**
+     * @return interface the answer arrived on, {@code null} when unknown
+     */
+    @Nullable
+    public String getInterfaceName() {
+        return mInterfaceName;
+    }
+
+    @NonNull
+    public String getST() {
+        return mHeaders.st;
+    }
+
+    @NonNull
+    public String getUSN() {
+        return mHeaders.usn;
+    }
+
+    /**
+     * @see UPnPDevice#getUUID()
+     */
+    @NonNull
+    public String getUUID() {
+        return UPnPDevice.uuidOf(mHeaders.usn);
+    }
+
+    @NonNull
+    public String getServer() {
+        return mHeaders.server;
+    }
+
+    @NonNull
+    public String getLocation() {
+        return mHeaders.location;
+    }
+
+    /**
+     * @return the host of the LOCATION URL without brackets around IPv6 literals, an empty string
+     * when LOCATION is not an absolute URL
+     */
+    @NonNull
+    public String getLocationHost() {
+        findHost();
+        if (mHostStart < 0) {
+            return "";
+        }
+
+        final String location = mHeaders.location;
+        if (location.charAt(mHostStart) == '[') {
+            final int close = location.indexOf(']', mHostStart);
+            return close > 0 && close < mHostEnd ? location.substring(mHostStart + 1, close) : "";
+        }
+        final int colon = location.indexOf(':', mHostStart);
+        return location.substring(mHostStart, colon >= 0 && colon < mHostEnd ? colon : mHostEnd);
+    }
+
+    /**
+     * @return the port of the LOCATION URL, 80 when it names none, -1 when LOCATION is not an
+     * absolute URL or the port is not a number
+     */
+    public int getLocationPort() {
+        findHost();
+        if (mHostStart < 0) {
+            return -1;
+        }
+
+        final String location = mHeaders.location;
+        int colon = location.lastIndexOf(':', mHostEnd - 1);
+        final int close = location.lastIndexOf(']', mHostEnd - 1);
+        if (colon < mHostStart || colon < close) {
+            return DEFAULT_HTTP_PORT;
+        }
+
+        int port = 0;
+        for (int i = colon + 1; i < mHostEnd; i++) {
+            final char c = location.charAt(i);
+            if (c < '0' || c > '9' || port > 0xFFFF) {
+                return -1;
+            }
+            port = port * 10 + (c - '0');
+        }
+        return colon + 1 < mHostEnd && port <= 0xFFFF ? port : -1;
+    }
+
+    private void findHost() {
+        if (mHostStart != -2) {
+            return;
+        }
+
+        final String location = mHeaders.location;
+        final int scheme = location.indexOf("://");
+        if (scheme <= 0) {
+            mHostStart = -1;
+            return;
+        }
+
+        mHostStart = scheme + 3;
+        int end = mHostStart;
+        while (end < location.length() && "/?#".indexOf(location.charAt(end)) < 0) {
+            end++;
+        }
+        mHostEnd = end;
+        if (mHostEnd == mHostStart) {
+            mHostStart = -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SsdpAnswer{from=" + mFrom + ", st=" + getST() + ", usn=" + getUSN() + ", location=" + getLocation() + "}";
+    }
+}
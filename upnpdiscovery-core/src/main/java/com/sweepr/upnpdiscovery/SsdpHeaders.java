@@ -0,0 +1,287 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.Charset;
+
+/**
+ * Typed view of the SSDP headers the library cares about, tokenized in a single pass straight
+ * from a datagram buffer.
+ * <p>
+ * Header names are matched case-insensitively and whitespace around the colon is optional, so
+ * {@code Location:http://...} and {@code LOCATION: http://...} parse the same way. Only values of
+ * recognized headers are turned into strings; everything else is skipped without allocating.
+ */
+final class SsdpHeaders {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] HTTP_OK = ascii("HTTP/1.1 200");
+    private static final byte[] NOTIFY = ascii("NOTIFY * HTTP/1.1");
+    private static final byte[] LOCATION = ascii("LOCATION");
+    private static final byte[] SERVER = ascii("SERVER");
+    private static final byte[] USN = ascii("USN");
+    private static final byte[] ST = ascii("ST");
+    private static final byte[] NT = ascii("NT");
+    private static final byte[] NTS = ascii("NTS");
+    private static final byte[] CACHE_CONTROL = ascii("CACHE-CONTROL");
+    private static final byte[] BOOTID = ascii("BOOTID.UPNP.ORG");
+    private static final byte[] CONFIGID = ascii("CONFIGID.UPNP.ORG");
+    private static final byte[] MAX_AGE = ascii("max-age");
+    private static final byte[] UUID_PREFIX = ascii("uuid:");
+
+    /** Indices of the bounds {@link #findKeys} writes. */
+    static final int LOCATION_START = 0;
+    static final int LOCATION_END = 1;
+    static final int UUID_START = 2;
+    static final int UUID_END = 3;
+
+    @NonNull
+    String location = "";
+    @NonNull
+    String server = "";
+    @NonNull
+    String usn = "";
+    @NonNull
+    String st = "";
+    /** NOTIFY only: the notification type, playing the role of ST. */
+    @NonNull
+    String nt = "";
+    /** NOTIFY only: ssdp:alive, ssdp:update or ssdp:byebye. */
+    @NonNull
+    String nts = "";
+    /** CACHE-CONTROL max-age in seconds, 0 when absent. */
+    int maxAge;
+    /** BOOTID.UPNP.ORG, -1 when absent. */
+    int bootId = -1;
+    /** CONFIGID.UPNP.ORG, -1 when absent. */
+    int configId = -1;
+
+    SsdpHeaders() {
+    }
+
+    /**
+     * @return true if {@code data} starts with an {@code HTTP/1.1 200} status line.
+     */
+    static boolean isOkResponse(@NonNull byte[] data, int offset, int length) {
+        return length >= HTTP_OK.length && equalsIgnoreCase(data, offset, offset + HTTP_OK.length, HTTP_OK);
+    }
+
+    /**
+     * @return true if {@code data} starts with a {@code NOTIFY * HTTP/1.1} request line.
+     */
+    static boolean isNotify(@NonNull byte[] data, int offset, int length) {
+        return length >= NOTIFY.length && equalsIgnoreCase(data, offset, offset + NOTIFY.length, NOTIFY);
+    }
+
+    @NonNull
+    static SsdpHeaders parse(@NonNull String message) {
+        final byte[] data = message.getBytes(UTF_8);
+        return parse(data, 0, data.length);
+    }
+
+    @NonNull
+    static SsdpHeaders parse(@NonNull byte[] data, int offset, int length) {
+        final SsdpHeaders result = new SsdpHeaders();
+        final int end = offset + length;
+
+        // Skip the start line.
+        int pos = nextLine(data, offset, end);
+        while (pos < end) {
+            final int next = nextLine(data, pos, end);
+            int lineEnd = next;
+            while (lineEnd > pos && (data[lineEnd - 1] == '\n' || data[lineEnd - 1] == '\r')) {
+                lineEnd--;
+            }
+            if (lineEnd == pos) {
+                break;
+            }
+
+            int colon = pos;
+            while (colon < lineEnd && data[colon] != ':') {
+                colon++;
+            }
+            if (colon < lineEnd) {
+                result.set(data, pos, trimEnd(data, pos, colon), trimStart(data, colon + 1, lineEnd), lineEnd);
+            }
+            pos = next;
+        }
+        return result;
+    }
+
+    /**
+     * Locates the LOCATION value and the {@code uuid:...} part of the USN value without creating
+     * any object, for telling duplicate answers apart before {@link #parse}. Writes their bounds
+     * into {@code ranges} at {@link #LOCATION_START}, {@link #LOCATION_END}, {@link #UUID_START}
+     * and {@link #UUID_END}; a missing value gets an empty range. The bounds cover the same bytes
+     * {@link #parse} and {@link UPnPDevice#uuidOf} turn into strings.
+     */
+    static void findKeys(@NonNull byte[] data, int offset, int length, @NonNull int[] ranges) {
+        ranges[LOCATION_START] = ranges[LOCATION_END] = offset;
+        ranges[UUID_START] = ranges[UUID_END] = offset;
+        final int end = offset + length;
+
+        int pos = nextLine(data, offset, end);
+        while (pos < end) {
+            final int next = nextLine(data, pos, end);
+            int lineEnd = next;
+            while (lineEnd > pos && (data[lineEnd - 1] == '\n' || data[lineEnd - 1] == '\r')) {
+                lineEnd--;
+            }
+            if (lineEnd == pos) {
+                break;
+            }
+
+            int colon = pos;
+            while (colon < lineEnd && data[colon] != ':') {
+                colon++;
+            }
+            if (colon < lineEnd) {
+                final int nameEnd = trimEnd(data, pos, colon);
+                final int valueStart = trimStart(data, colon + 1, lineEnd);
+                final int valueEnd = trimEnd(data, valueStart, lineEnd);
+                if (equalsIgnoreCase(data, pos, nameEnd, LOCATION)) {
+                    ranges[LOCATION_START] = valueStart;
+                    ranges[LOCATION_END] = valueEnd;
+                } else if (equalsIgnoreCase(data, pos, nameEnd, USN)) {
+                    ranges[UUID_START] = ranges[UUID_END] = valueStart;
+                    if (valueEnd - valueStart >= UUID_PREFIX.length
+                            && equalsIgnoreCase(data, valueStart, valueStart + UUID_PREFIX.length, UUID_PREFIX)) {
+                        int uuidEnd = valueStart;
+                        while (uuidEnd < valueEnd && !(data[uuidEnd] == ':' && uuidEnd + 1 < valueEnd && data[uuidEnd + 1] == ':')) {
+                            uuidEnd++;
+                        }
+                        ranges[UUID_END] = uuidEnd;
+                    }
+                }
+            }
+            pos = next;
+        }
+    }
+
+    private void set(byte[] data, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        valueEnd = trimEnd(data, valueStart, valueEnd);
+
+        switch (nameEnd - nameStart) {
+            case 2:
+                if (equalsIgnoreCase(data, nameStart, nameEnd, ST)) {
+                    st = string(data, valueStart, valueEnd);
+                } else if (equalsIgnoreCase(data, nameStart, nameEnd, NT)) {
+                    nt = string(data, valueStart, valueEnd);
+                }
+                break;
+            case 3:
+                if (equalsIgnoreCase(data, nameStart, nameEnd, USN)) {
+                    usn = string(data, valueStart, valueEnd);
+                } else if (equalsIgnoreCase(data, nameStart, nameEnd, NTS)) {
+                    nts = string(data, valueStart, valueEnd);
+                }
+                break;
+            case 6:
+                if (equalsIgnoreCase(data, nameStart, nameEnd, SERVER)) {
+                    server = string(data, valueStart, valueEnd);
+                }
+                break;
+            case 8:
+                if (equalsIgnoreCase(data, nameStart, nameEnd, LOCATION)) {
+                    location = string(data, valueStart, valueEnd);
+                }
+                break;
+            case 13:
+                if (equalsIgnoreCase(data, nameStart, nameEnd, CACHE_CONTROL)) {
+                    maxAge = parseMaxAge(data, valueStart, valueEnd);
+                }
+                break;
+            case 15:
+                if (equalsIgnoreCase(data, nameStart, nameEnd, BOOTID)) {
+                    bootId = parseInt(data, valueStart, valueEnd);
+                }
+                break;
+            case 17:
+                if (equalsIgnoreCase(data, nameStart, nameEnd, CONFIGID)) {
+                    configId = parseInt(data, valueStart, valueEnd);
+                }
+                break;
+        }
+    }
+
+    private static int parseMaxAge(byte[] data, int start, int end) {
+        for (int i = start; i + MAX_AGE.length <= end; i++) {
+            if (equalsIgnoreCase(data, i, i + MAX_AGE.length, MAX_AGE)) {
+                int pos = trimStart(data, i + MAX_AGE.length, end);
+                if (pos < end && data[pos] == '=') {
+                    final int value = parseInt(data, trimStart(data, pos + 1, end), end);
+                    return Math.max(0, value);
+                }
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the leading decimal number in the range, or -1 if there is none.
+     */
+    private static int parseInt(byte[] data, int start, int end) {
+        int result = -1;
+        for (int i = start; i < end; i++) {
+            final byte c = data[i];
+            if (c < '0' || c > '9' || result >= 100000000) {
+                break;
+            }
+            result = (result < 0 ? 0 : result * 10) + (c - '0');
+        }
+        return result;
+    }
+
+    private static int nextLine(byte[] data, int pos, int end) {
+        while (pos < end && data[pos] != '\n') {
+            pos++;
+        }
+        return pos < end ? pos + 1 : end;
+    }
+
+    private static int trimStart(byte[] data, int start, int end) {
+        while (start < end && (data[start] == ' ' || data[start] == '\t')) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] data, int start, int end) {
+        while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] data, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+
+        for (int i = 0; i < expected.length; i++) {
+            byte c = data[start + i];
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            byte u = expected[i];
+            if (u >= 'a' && u <= 'z') {
+                u -= 'a' - 'A';
+            }
+            if (c != u) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    private static String string(byte[] data, int start, int end) {
+        return start < end ? new String(data, start, end - start, UTF_8) : "";
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,695 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * One M-SEARCH scan, independent of the platform: sends the queries through an
+ * {@link SsdpTransport}, fetches the description of every device that answers through a
+ * {@link DescriptionLoader} and reports on a {@link Scheduler}. {@link #run()} blocks on the
+ * calling thread until the search window closes; the {@link DiscoveryHandle} completes once the
+ * last description has come back.
+ */
+public final class SsdpSearch implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger("SsdpSearch");
+
+    public static final int DEFAULT_PORT = 1900;
+    public static final String DEFAULT_ADDRESS = "239.255.255.250";
+
+    private static final int MAX_MX_SECONDS = 5;
+    private static final String LINE_END = "\r\n";
+
+    public interface Listener {
+        void onStart();
+
+        void onDeviceFound(@NonNull UPnPDevice device);
+
+        void onFinish(@NonNull Set<UPnPDevice> devices);
+
+        void onError(@NonNull Exception e);
+    }
+
+    /**
+     * Decides from the SSDP headers alone whether an answer is worth a description fetch. Runs on
+     * the socket thread for every answer, so it must be quick and must not block.
+     */
+    public interface Filter {
+        /**
+         * @param answer only valid during the call
+         * @return false to drop the answer; a later answer of the same device, for instance to
+         * another search target, is still offered
+         */
+        boolean accept(@NonNull SsdpAnswer answer);
+    }
+
+    /**
+     * A {@link Listener} that takes the devices of a batch as one list when the search delivers
+     * in batches, see {@link #setDeliveryInterval}. {@link #onDeviceFound} is not called then.
+     */
+    public interface BatchListener extends Listener {
+        void onDevicesFound(@NonNull List<UPnPDevice> devices);
+    }
+
+    // Described devices keyed by UDN; filled from whichever thread delivers the descriptions
+    private final ConcurrentHashMap<String, UPnPDevice> mDevices = new ConcurrentHashMap<>();
+    // LOCATIONs and UUIDs already being fetched in the current scan, only touched by the socket thread
+    private final SeenKeys mSeenKeys = new SeenKeys();
+    // Bounds of the keys of the datagram being handled, see SsdpHeaders.findKeys
+    private final int[] mKeyRanges = new int[4];
+    @NonNull
+    private final SsdpTransport.Factory mTransports;
+    @NonNull
+    private final DescriptionLoader mLoader;
+    @NonNull
+    private final Scheduler mScheduler;
+    @Nullable
+    private final Listener mListener;
+    // Outstanding description fetches, plus one while the search window is open. The thread that
+    // brings it to zero finishes the discovery.
+    private final AtomicInteger mInFlight = new AtomicInteger(1);
+    // Searches every eligible interface when set, otherwise only the default route is used
+    @Nullable
+    private final SearchRequest mRequest;
+    // One datagram per search target, all sent at every offset of mSendOffsets
+    private final List<byte[]> mQueries;
+    private final long[] mSendOffsets;
+    // ST values, for the unicast queries to mKnownHosts
+    private final List<String> mTargets;
+    // One unicast M-SEARCH per known host and target, sent along with every multicast round
+    private final List<InetSocketAddress> mUnicastHosts = new ArrayList<>();
+    private final List<byte[]> mUnicastQueries = new ArrayList<>();
+    private final int mMx;
+    private final String mInetAddress;
+    private final int mPort;
+    @NonNull
+    private final ScanPolicy mPolicy;
+
+    @NonNull
+    private final DiscoveryHandle mHandle;
+    // Why the search window closed, published before the window's unit of mInFlight is released
+    @NonNull
+    private volatile DiscoveryHandle.FinishReason mWindowReason = DiscoveryHandle.FinishReason.MX_ELAPSED;
+    private final Runnable mHardDeadline = new Runnable() {
+        @Override
+        public void run() {
+            mLoader.cancel(SsdpSearch.this);
+            notifyFinish(DiscoveryHandle.FinishReason.HARD_DEADLINE);
+        }
+    };
+
+    private volatile boolean mCanContinue = true;
+    @Nullable
+    private volatile SsdpTransport mTransport;
+    // Set once the discovery finished or was cancelled; guarantees a single onFinish. Set and
+    // checked under mResultLock together with every change to mDevices, so no device is reported
+    // after onFinish.
+    private final AtomicBoolean mFinished = new AtomicBoolean();
+    private final Object mResultLock = new Object();
+
+    @NonNull
+    private DiscoveryMetrics mMetrics = DiscoveryMetrics.NONE;
+    // Scheduler time at which run() started, only read when metrics are enabled
+    private long mStartTime;
+    // Whether a datagram arrived yet, only touched by the socket thread
+    private boolean mAnswered;
+
+    // Devices found since the last batch went out, when mDeliveryInterval is positive
+    private final ConcurrentLinkedQueue<UPnPDevice> mBatch = new ConcurrentLinkedQueue<>();
+    // Set while a flush of mBatch is posted, so there is never more than one
+    private final AtomicBoolean mFlushPending = new AtomicBoolean();
+    private long mDeliveryInterval;
+
+    @Nullable
+    private Filter mFilter;
+    // Reused for every answer handed to mFilter, only touched by the socket thread
+    private final SsdpAnswer mAnswer = new SsdpAnswer();
+    private boolean mHeadersOnly;
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            mFlushPending.set(false);
+            final List<UPnPDevice> devices = new ArrayList<>();
+            UPnPDevice device;
+            while ((device = mBatch.poll()) != null) {
+                devices.add(device);
+            }
+            if (devices.isEmpty() || mListener == null) {
+                return;
+            }
+
+            if (mListener instanceof BatchListener) {
+                ((BatchListener) mListener).onDevicesFound(Collections.unmodifiableList(devices));
+            } else {
+                for (UPnPDevice found : devices) {
+                    mListener.onDeviceFound(found);
+                }
+            }
+        }
+    };
+
+    private final SsdpTransport.Receiver mReceiver = new SsdpTransport.Receiver() {
+        @Override
+        public void onDatagram(@NonNull InetSocketAddress from, @Nullable String interfaceName, @NonNull byte[] data, int length) {
+            handleResponse(from, interfaceName, data, length);
+        }
+
+        @Override
+        public void onTruncated(@NonNull InetSocketAddress from) {
+            if (mMetrics != DiscoveryMetrics.NONE) {
+                onPacket(0);
+                mMetrics.onPacketTruncated();
+            }
+        }
+    };
+
+    /**
+     * Searches for every target of {@code request} on every interface the transport supports.
+     */
+    public SsdpSearch(@NonNull ScanPolicy policy, @NonNull SearchRequest request,
+                      @NonNull SsdpTransport.Factory transports, @NonNull DescriptionLoader loader,
+                      @NonNull Scheduler scheduler, @Nullable Listener listener) {
+        mTransports = transports;
+        mLoader = loader;
+        mScheduler = scheduler;
+        mListener = listener;
+        mRequest = request;
+        mQueries = request.buildQueries(DEFAULT_ADDRESS, DEFAULT_PORT);
+        mSendOffsets = request.buildSendOffsets(new Random());
+        mTargets = request.getTargets();
+        mMx = request.getMx();
+        mInetAddress = DEFAULT_ADDRESS;
+        mPort = DEFAULT_PORT;
+        mPolicy = policy;
+        mHandle = new DiscoveryHandle(this, scheduler);
+    }
+
+    /**
+     * Sends {@code customQuery} once to {@code address}:{@code port} over the default route.
+     */
+    public SsdpSearch(@NonNull ScanPolicy policy, @NonNull String customQuery, @NonNull String address, int port,
+                      @NonNull SsdpTransport.Factory transports, @NonNull DescriptionLoader loader,
+                      @NonNull Scheduler scheduler, @Nullable Listener listener) {
+        mTransports = transports;
+        mLoader = loader;
+        mScheduler = scheduler;
+        mListener = listener;
+        mRequest = null;
+        mQueries = Collections.singletonList(customQuery.getBytes(SsdpHeaders.UTF_8));
+        mSendOffsets = new long[]{0};
+        final String target = headerOf(customQuery, "ST:");
+        mTargets = Collections.singletonList(target != null ? target : SearchRequest.SSDP_ALL);
+        mMx = parseMx(customQuery);
+        mInetAddress = address;
+        mPort = port;
+        mPolicy = policy;
+        mHandle = new DiscoveryHandle(this, scheduler);
+    }
+
+    /**
+     * Reports this scan to {@code metrics}. Call before {@link #run()}; the default reports nothing.
+     */
+    public void setMetrics(@NonNull DiscoveryMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Delivers found devices at most once per {@code millis}, all the devices found in the
+     * meantime in one callback on the scheduler, to a {@link BatchListener} as a single list.
+     * {@code 0}, the default, reports every device as soon as its description arrives. Call
+     * before {@link #run()}. The last batch always goes out before {@link Listener#onFinish}.
+     */
+    public void setDeliveryInterval(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        mDeliveryInterval = millis;
+    }
+
+    /**
+     * Applies every setting of {@code options} to this search. Call before {@link #run()}.
+     */
+    public void setOptions(@NonNull DiscoveryOptions options) {
+        setMetrics(options.getMetrics());
+        setDeliveryInterval(options.getDeliveryIntervalMillis());
+        setFilter(options.getFilter());
+        setHeadersOnly(options.isHeadersOnly());
+        setKnownHosts(options.getKnownHosts());
+    }
+
+    /**
+     * Drops the answers {@code filter} rejects before any description is fetched for them. Call
+     * before {@link #run()}.
+     */
+    public void setFilter(@Nullable Filter filter) {
+        mFilter = filter;
+    }
+
+    /**
+     * Reports devices straight from their SSDP answers, without fetching any description. Their
+     * description getters, such as {@link UPnPDevice#getFriendlyName()}, return {@code null}.
+     * Call before {@link #run()}.
+     */
+    public void setHeadersOnly(boolean headersOnly) {
+        mHeadersOnly = headersOnly;
+    }
+
+    /**
+     * Also sends a UPnP 1.1 unicast M-SEARCH for every search target straight to each of
+     * {@code hosts}, typically the devices of an earlier session, with every multicast round.
+     * Unicast queries carry no MX, so known devices answer at once while the multicast search
+     * keeps looking for new ones. Call before {@link #run()}.
+     *
+     * @see #knownHostOf(UPnPDevice)
+     */
+    public void setKnownHosts(@NonNull Collection<InetSocketAddress> hosts) {
+        mUnicastHosts.clear();
+        mUnicastQueries.clear();
+        for (InetSocketAddress host : hosts) {
+            if (host.isUnresolved()) {
+                continue;
+            }
+            for (String target : mTargets) {
+                mUnicastHosts.add(host);
+                mUnicastQueries.add(SearchRequest.buildUnicastQuery(target, host));
+            }
+        }
+    }
+
+    /**
+     * @return the SSDP endpoint of {@code device} for {@link #setKnownHosts}: the address that
+     * answered, on the standard SSDP port. {@code null} when the device has no usable address.
+     */
+    @Nullable
+    public static InetSocketAddress knownHostOf(@NonNull UPnPDevice device) {
+        final String hostAddress = device.getHostAddress();
+        if (hostAddress == null || hostAddress.isEmpty()) {
+            return null;
+        }
+        try {
+            // Always a numeric literal taken from the datagram, so no name lookup happens here.
+            return new InetSocketAddress(InetAddress.getByName(hostAddress), DEFAULT_PORT);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    public DiscoveryHandle getHandle() {
+        return mHandle;
+    }
+
+    private void notifyStart() {
+        if (mListener != null) {
+            mScheduler.post(new Runnable() {
+                public void run() {
+                    mListener.onStart();
+                }
+            });
+        }
+    }
+
+    private void notifyFoundNewDevice(@NonNull final UPnPDevice device) {
+        if (mListener != null && mDeliveryInterval > 0) {
+            mBatch.add(device);
+            if (mFlushPending.compareAndSet(false, true)) {
+                mScheduler.postDelayed(mFlush, mDeliveryInterval);
+            }
+        } else if (mListener != null) {
+            mScheduler.post(new Runnable() {
+                public void run() {
+                    mListener.onDeviceFound(device);
+                }
+            });
+        }
+    }
+
+    private void notifyError(final Exception e) {
+        if (mListener != null) {
+            mScheduler.post(new Runnable() {
+                public void run() {
+                    mListener.onError(e);
+                }
+            });
+        }
+    }
+
+    private void notifyFinish(@NonNull DiscoveryHandle.FinishReason reason) {
+        final Set<UPnPDevice> devices;
+        synchronized (mResultLock) {
+            if (!mFinished.compareAndSet(false, true)) {
+                return;
+            }
+
+            devices = Collections.unmodifiableSet(new HashSet<>(mDevices.values()));
+            mScheduler.cancel(mHardDeadline);
+            if (mDeliveryInterval > 0) {
+                // Hand over the last batch now rather than delaying onFinish by up to an interval.
+                mScheduler.cancel(mFlush);
+                mScheduler.post(mFlush);
+            }
+        }
+        LOG.fine("Discovery finished: " + reason);
+        if (mMetrics != DiscoveryMetrics.NONE) {
+            mMetrics.onScanFinished(mScheduler.now() - mStartTime, reason);
+        }
+        mHandle.complete(devices, reason);
+        if (mListener != null) {
+            mScheduler.post(new Runnable() {
+                public void run() {
+                    mListener.onFinish(devices);
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the search window early. Description fetches already started still complete and are
+     * reported before {@link Listener#onFinish}.
+     */
+    public void abort() {
+        mCanContinue = false;
+
+        final SsdpTransport transport = mTransport;
+        if (transport != null) {
+            transport.wakeup();
+        }
+    }
+
+    /**
+     * Stops the search and drops outstanding description fetches without notifying
+     * {@link Listener#onFinish}. Called through {@link DiscoveryHandle#cancel}.
+     */
+    void cancel() {
+        synchronized (mResultLock) {
+            mFinished.set(true);
+            mScheduler.cancel(mHardDeadline);
+            mScheduler.cancel(mFlush);
+            mBatch.clear();
+        }
+        abort();
+        mLoader.cancel(this);
+    }
+
+    @Override
+    public void run() {
+        if (!mCanContinue) {
+            return;
+        }
+        mSeenKeys.clear();
+
+        notifyStart();
+
+        final long startTime = mScheduler.now();
+        mStartTime = startTime;
+        mAnswered = false;
+        if (mMetrics != DiscoveryMetrics.NONE) {
+            mMetrics.onScanStarted();
+        }
+        SsdpTransport transport = null;
+        try {
+            final InetSocketAddress group = new InetSocketAddress(InetAddress.getByName(mInetAddress), mPort);
+            transport = mTransports.open(mRequest, group, mQueries);
+            mTransport = transport;
+
+            mWindowReason = receive(transport, startTime);
+
+        } catch (final IOException e) {
+            LOG.fine("Search failed: " + e);
+            mWindowReason = DiscoveryHandle.FinishReason.ERROR;
+            mHandle.fail(e);
+            notifyError(e);
+        } finally {
+            mTransport = null;
+            if (transport != null) {
+                transport.close();
+            }
+
+            mScheduler.postDelayed(mHardDeadline,
+                    Math.max(0, startTime + mPolicy.getHardDeadlineMillis() - mScheduler.now()));
+            // Release the search window's unit; finishes now unless fetches are still out.
+            onFetchDone();
+        }
+    }
+
+    /**
+     * Sends the queries on their schedule and hands every answer to {@link #handleResponse}
+     * until the {@link ScanPolicy} closes the search window or the discovery is aborted.
+     *
+     * @param startTime {@link Scheduler#now()} at which the scan started
+     * @return the condition that closed the window
+     */
+    @NonNull
+    private DiscoveryHandle.FinishReason receive(@NonNull SsdpTransport transport, long startTime) throws IOException {
+        final long hardDeadline = startTime + mPolicy.getHardDeadlineMillis();
+        final long windowEnd = Math.min(startTime + mMx * 1000L, hardDeadline);
+        final long quietMillis = mPolicy.getQuietMillis();
+        long lastResponseTime = -1;
+        int nextSend = 0;
+
+        while (true) {
+            if (!mCanContinue) {
+                return DiscoveryHandle.FinishReason.ABORTED;
+            }
+
+            long now = mScheduler.now();
+            while (nextSend < mSendOffsets.length && startTime + mSendOffsets[nextSend] <= now) {
+                transport.send();
+                for (int i = 0; i < mUnicastHosts.size(); i++) {
+                    transport.sendTo(mUnicastHosts.get(i), mUnicastQueries.get(i));
+                }
+                nextSend++;
+                now = mScheduler.now();
+            }
+
+            if (now >= windowEnd) {
+                return now >= hardDeadline ? DiscoveryHandle.FinishReason.HARD_DEADLINE : DiscoveryHandle.FinishReason.MX_ELAPSED;
+            }
+
+            long wakeTime = windowEnd;
+            if (nextSend < mSendOffsets.length) {
+                wakeTime = Math.min(wakeTime, startTime + mSendOffsets[nextSend]);
+            } else if (quietMillis > 0 && lastResponseTime >= 0) {
+                final long quietTime = lastResponseTime + quietMillis;
+                if (now < quietTime) {
+                    wakeTime = Math.min(wakeTime, quietTime);
+                } else if (isIdle()) {
+                    return DiscoveryHandle.FinishReason.QUIET;
+                }
+                // Otherwise quiet but fetches are pending: onFetchDone() wakes the transport.
+            }
+
+            if (transport.receive(wakeTime - now, mReceiver) > 0) {
+                lastResponseTime = mScheduler.now();
+            }
+        }
+    }
+
+    /**
+     * Parses an M-SEARCH answer straight from the receive buffer. Duplicates are recognized on the
+     * raw LOCATION and USN bytes and dropped without allocating; only the first answer of each
+     * device gets parsed and copied out of the buffer into a {@link UPnPDevice}, so a device
+     * reachable over several interfaces or over both IPv4 and IPv6 is reported once, tagged with
+     * the interface that answered first.
+     */
+    private void handleResponse(@NonNull InetSocketAddress from, @Nullable String interfaceName, @NonNull byte[] data, int length) {
+        final boolean measure = mMetrics != DiscoveryMetrics.NONE;
+        if (measure) {
+            onPacket(length);
+        }
+        if (!SsdpHeaders.isOkResponse(data, 0, length)) {
+            if (measure) {
+                mMetrics.onPacketRejected();
+            }
+            return;
+        }
+
+        final int[] keys = mKeyRanges;
+        SsdpHeaders.findKeys(data, 0, length, keys);
+        if (keys[SsdpHeaders.LOCATION_START] == keys[SsdpHeaders.LOCATION_END]) {
+            return;
+        }
+        if (isSeen(data, keys)) {
+            if (measure) {
+                mMetrics.onPacketDuplicate();
+            }
+            return;
+        }
+
+        final SsdpHeaders headers = SsdpHeaders.parse(data, 0, length);
+        if (mFilter != null && !mFilter.accept(mAnswer.reset(from, interfaceName, headers))) {
+            if (measure) {
+                mMetrics.onPacketFiltered();
+            }
+            return;
+        }
+        markSeen(data, keys);
+
+        final UPnPDevice device = new UPnPDevice(from.getAddress().getHostAddress(), headers, data, length, interfaceName);
+        if (mHeadersOnly) {
+            synchronized (mResultLock) {
+                if (!mFinished.get() && mDevices.putIfAbsent(resultKey(device), device) == null) {
+                    notifyFoundNewDevice(device);
+                }
+            }
+            return;
+        }
+        getData(device.getLocation(), device);
+    }
+
+    /**
+     * Reports a datagram, and the time to the first one of the scan, to {@link #mMetrics}.
+     */
+    private void onPacket(int length) {
+        mMetrics.onPacketReceived(length);
+        if (!mAnswered) {
+            mAnswered = true;
+            mMetrics.onFirstResponse(mScheduler.now() - mStartTime);
+        }
+    }
+
+    /**
+     * With ssdp:all a device answers once per device type and service it exposes. Only the first
+     * answer for a given LOCATION or UUID starts a description fetch.
+     *
+     * @param keys bounds found by {@link SsdpHeaders#findKeys}
+     * @return true if the device was already seen in this scan.
+     */
+    private boolean isSeen(@NonNull byte[] data, @NonNull int[] keys) {
+        final int uuidStart = keys[SsdpHeaders.UUID_START];
+        final int uuidEnd = keys[SsdpHeaders.UUID_END];
+        return mSeenKeys.contains(data, keys[SsdpHeaders.LOCATION_START], keys[SsdpHeaders.LOCATION_END])
+                || (uuidStart < uuidEnd && mSeenKeys.contains(data, uuidStart, uuidEnd));
+    }
+
+    private void markSeen(@NonNull byte[] data, @NonNull int[] keys) {
+        mSeenKeys.add(data, keys[SsdpHeaders.LOCATION_START], keys[SsdpHeaders.LOCATION_END]);
+        if (keys[SsdpHeaders.UUID_START] < keys[SsdpHeaders.UUID_END]) {
+            mSeenKeys.add(data, keys[SsdpHeaders.UUID_START], keys[SsdpHeaders.UUID_END]);
+        }
+    }
+
+    /**
+     * @return true when no description fetch is outstanding. Only meaningful on the socket thread,
+     * while the search window still holds its unit of {@link #mInFlight}.
+     */
+    private boolean isIdle() {
+        return mInFlight.get() == 1;
+    }
+
+    /**
+     * @return the MX value of {@code query}, clamped to the 1..5 seconds allowed by UPnP.
+     */
+    private static int parseMx(@NonNull String query) {
+        final String mx = headerOf(query, "MX:");
+        if (mx == null) {
+            return SearchRequest.DEFAULT_MX_SECONDS;
+        }
+        try {
+            return Math.max(1, Math.min(Integer.parseInt(mx), MAX_MX_SECONDS));
+        } catch (NumberFormatException e) {
+            return SearchRequest.DEFAULT_MX_SECONDS;
+        }
+    }
+
+    /**
+     * @param name header name including the colon, matched case-insensitively
+     * @return the trimmed value of the first {@code name} header of {@code query}, {@code null}
+     * when there is none
+     */
+    @Nullable
+    private static String headerOf(@NonNull String query, @NonNull String name) {
+        int pos = 0;
+        while (pos < query.length()) {
+            int end = query.indexOf(LINE_END, pos);
+            if (end == -1) {
+                end = query.length();
+            }
+
+            if (query.regionMatches(true, pos, name, 0, name.length())) {
+                return query.substring(pos + name.length(), end).trim();
+            }
+            pos = end + LINE_END.length();
+        }
+        return null;
+    }
+
+    private void getData(final String url, final UPnPDevice device) {
+        mInFlight.incrementAndGet();
+        final long fetchStart = mMetrics != DiscoveryMetrics.NONE ? mScheduler.now() : 0;
+        mLoader.fetch(url, device.getMaxAge(), this, mMetrics, new ResultHandler<DeviceDescription>() {
+            @Override
+            public void onSuccess(DeviceDescription description) {
+                if (mMetrics != DiscoveryMetrics.NONE) {
+                    mMetrics.onFetchFinished(mScheduler.now() - fetchStart, true);
+                }
+
+                synchronized (mResultLock) {
+                    // The hard deadline or a cancel may have won while this result was on its way.
+                    if (!mFinished.get()) {
+                        device.update(description);
+                        // Answers from another interface or address family can carry a different
+                        // LOCATION for the same UDN; only the first one is reported.
+                        if (mDevices.putIfAbsent(resultKey(device), device) == null) {
+                            notifyFoundNewDevice(device);
+                        }
+                    }
+                }
+
+                onFetchDone();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (mMetrics != DiscoveryMetrics.NONE) {
+                    mMetrics.onFetchFinished(mScheduler.now() - fetchStart, false);
+                }
+                onFetchDone();
+            }
+        });
+    }
+
+    /**
+     * Releases one unit of {@link #mInFlight}. The discovery finishes exactly once, when the search
+     * window has closed and the last description fetch has come back.
+     */
+    private void onFetchDone() {
+        if (mInFlight.decrementAndGet() == 0) {
+            notifyFinish(mWindowReason);
+            return;
+        }
+
+        final SsdpTransport transport = mTransport;
+        if (transport != null) {
+            transport.wakeup();
+        }
+    }
+
+    /**
+     * @return the identity of a device across answers and scans: its UDN, else its UUID, else
+     * its LOCATION
+     */
+    @NonNull
+    static String resultKey(@NonNull UPnPDevice device) {
+        if (device.getUDN() != null && !device.getUDN().isEmpty()) {
+            return device.getUDN();
+        }
+        return !device.getUUID().isEmpty() ? device.getUUID() : device.getLocation();
+    }
+}
@@ -0,0 +1,68 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * The sockets of one M-SEARCH: sends the queries and hands back whatever answers arrive. Driven
+ * by a single {@link SsdpSearch} thread, except for {@link #wakeup()}.
+ *
+ * @see SelectorTransport
+ */
+public interface SsdpTransport {
+
+    interface Factory {
+        /**
+         * @param request when set, search every eligible interface with the targets of
+         *                {@code request}; otherwise, or if no interface qualifies, send
+         *                {@code queries} to {@code group} from a single socket
+         */
+        @NonNull
+        SsdpTransport open(@Nullable SearchRequest request, @NonNull InetSocketAddress group,
+                           @NonNull List<byte[]> queries) throws IOException;
+    }
+
+    interface Receiver {
+        /**
+         * @param interfaceName interface the answer arrived on, {@code null} when unknown
+         * @param data          buffer holding the datagram, only valid during the call
+         */
+        void onDatagram(@NonNull InetSocketAddress from, @Nullable String interfaceName,
+                        @NonNull byte[] data, int length);
+
+        /**
+         * A datagram filled the whole receive buffer, so it may have been cut short, and was dropped.
+         */
+        void onTruncated(@NonNull InetSocketAddress from);
+    }
+
+    /**
+     * Sends every query once on every socket.
+     */
+    void send();
+
+    /**
+     * Sends one datagram to a single host, from the socket best placed to reach it. Used for
+     * unicast M-SEARCH to hosts known from an earlier session.
+     */
+    void sendTo(@NonNull InetSocketAddress target, @NonNull byte[] datagram);
+
+    /**
+     * Waits up to {@code timeoutMillis} for answers and passes each one to {@code receiver}.
+     *
+     * @param timeoutMillis strictly positive
+     * @return the number of datagrams delivered, 0 on timeout or {@link #wakeup()}
+     */
+    int receive(long timeoutMillis, @NonNull Receiver receiver) throws IOException;
+
+    /**
+     * Makes a blocked {@link #receive} return early. Safe to call from any thread.
+     */
+    void wakeup();
+
+    void close();
+}
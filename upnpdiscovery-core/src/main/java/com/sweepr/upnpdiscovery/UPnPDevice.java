@@ -0,0 +1,322 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class UPnPDevice {
+
+    private static final String LINE_END = "\r\n";
+
+    // From SSDP Packet
+    private final String mHostAddress;
+    // SSDP Packet Header, decoded from mRawHeader on first use, never cached in compact mode
+    private String mHeader;
+    @Nullable
+    private final byte[] mRawHeader;
+    // False for devices built by hand, which have no header to rebuild
+    private final boolean mFromSsdp;
+    private final String mLocation;
+    private final String mServer;
+    private final String mUSN;
+    private final String mST;
+    private final int mMaxAge;
+    private final int mBootId;
+    private final int mConfigId;
+    // Network interface the SSDP packet arrived on, null when unknown
+    @Nullable
+    private final String mInterfaceName;
+
+    // Parsed description, shared with the description cache. The description getters read
+    // straight from it rather than keeping their own copies.
+    @Nullable
+    private DeviceDescription mDescription;
+
+    public UPnPDevice(@NonNull String hostAddress, @NonNull String header) {
+        this(hostAddress, SsdpHeaders.parse(header), null, 0, null);
+        if (!DeviceStorage.isCompact()) {
+            this.mHeader = header;
+        }
+    }
+
+    /**
+     * @param data   datagram the headers were parsed from; its first {@code length} bytes are
+     *               copied and decoded lazily by {@link #getHeader()}, unless
+     *               {@link DeviceStorage} is in compact mode
+     */
+    UPnPDevice(@NonNull String hostAddress, @NonNull SsdpHeaders headers, @Nullable byte[] data, int length,
+               @Nullable String interfaceName) {
+        this.mHostAddress = hostAddress;
+        this.mInterfaceName = DeviceStorage.canonical(interfaceName);
+        this.mRawHeader = data != null && !DeviceStorage.isCompact() ? Arrays.copyOf(data, length) : null;
+        this.mFromSsdp = true;
+        this.mLocation = headers.location;
+        this.mServer = DeviceStorage.canonical(headers.server);
+        this.mUSN = headers.usn;
+        this.mST = DeviceStorage.canonical(headers.st.isEmpty() ? headers.nt : headers.st);
+        this.mMaxAge = headers.maxAge;
+        this.mBootId = headers.bootId;
+        this.mConfigId = headers.configId;
+    }
+
+    public UPnPDevice(@NonNull String hostAddress, @NonNull String location, @NonNull String serialnumber, @NonNull String serviceType) {
+        this.mHostAddress = hostAddress;
+        this.mLocation = location;
+        this.mUSN = serialnumber;
+        this.mST = serviceType;
+        this.mServer = "";
+        this.mRawHeader = null;
+        this.mFromSsdp = false;
+        this.mMaxAge = 0;
+        this.mBootId = -1;
+        this.mConfigId = -1;
+        this.mInterfaceName = null;
+    }
+
+    public void update(@NonNull String xml) {
+        update(DescriptionParser.parse(xml));
+    }
+
+    void update(@NonNull DeviceDescription description) {
+        this.mDescription = description;
+    }
+
+    @NonNull
+    @VisibleForTesting
+    public static UPnPDevice fromXml(@NonNull String xml) {
+        final UPnPDevice device = new UPnPDevice("", "", "", "");
+        device.update(xml);
+        return device;
+    }
+
+    @NonNull
+    public String toString() {
+        return "FriendlyName: " + getFriendlyName() + LINE_END +
+                "ModelName: " + getModelName() + LINE_END +
+                "HostAddress: " + mHostAddress + LINE_END +
+                "Location: " + mLocation + LINE_END +
+                "Server: " + mServer + LINE_END +
+                "USN: " + mUSN + LINE_END +
+                "ST: " + mST + LINE_END +
+                "DeviceType: " + getDeviceType() + LINE_END +
+                "PresentationURL: " + getPresentationURL() + LINE_END +
+                "SerialNumber: " + getSerialNumber() + LINE_END +
+                "ModelURL: " + getModelURL() + LINE_END +
+                "ModelNumber: " + getModelNumber() + LINE_END +
+                "Manufacturer: " + getManufacturer() + LINE_END +
+                "ManufacturerURL: " + getManufacturerURL() + LINE_END +
+                "UDN: " + getUDN() + LINE_END +
+                "URLBase: " + getURLBase();
+    }
+
+    public String getHostAddress() {
+        return mHostAddress;
+    }
+
+    /**
+     * @return name of the network interface the device answered on, e.g. {@code wlan0}, or
+     * {@code null} when it was found through the default route
+     */
+    @Nullable
+    public String getInterfaceName() {
+        return mInterfaceName;
+    }
+
+    /**
+     * @return the SSDP header the device was found with. In {@link DeviceStorage} compact mode the
+     * datagram is not kept and an equivalent header is rebuilt from the parsed fields.
+     */
+    public String getHeader() {
+        if (mHeader == null && mRawHeader != null) {
+            mHeader = new String(mRawHeader, SsdpHeaders.UTF_8);
+        }
+        if (mHeader == null && mFromSsdp) {
+            return rebuildHeader();
+        }
+        return mHeader;
+    }
+
+    @NonNull
+    private String rebuildHeader() {
+        final StringBuilder header = new StringBuilder("HTTP/1.1 200 OK").append(LINE_END);
+        if (mMaxAge > 0) {
+            header.append("CACHE-CONTROL: max-age=").append(mMaxAge).append(LINE_END);
+        }
+        header.append("LOCATION: ").append(mLocation).append(LINE_END)
+                .append("SERVER: ").append(mServer).append(LINE_END)
+                .append("ST: ").append(mST).append(LINE_END)
+                .append("USN: ").append(mUSN).append(LINE_END);
+        if (mBootId >= 0) {
+            header.append("BOOTID.UPNP.ORG: ").append(mBootId).append(LINE_END);
+        }
+        if (mConfigId >= 0) {
+            header.append("CONFIGID.UPNP.ORG: ").append(mConfigId).append(LINE_END);
+        }
+        return header.append(LINE_END).toString();
+    }
+
+    public String getST() {
+        return mST;
+    }
+
+    public String getUSN() {
+        return mUSN;
+    }
+
+    /**
+     * @return the {@code uuid:...} part of the USN, identifying the physical device behind every
+     * device type and service it answers for, or an empty string when the USN has none.
+     */
+    @NonNull
+    public String getUUID() {
+        return uuidOf(mUSN);
+    }
+
+    @NonNull
+    static String uuidOf(@Nullable String usn) {
+        if (usn == null || !usn.regionMatches(true, 0, "uuid:", 0, 5)) {
+            return "";
+        }
+
+        final int end = usn.indexOf("::");
+        return end == -1 ? usn : usn.substring(0, end);
+    }
+
+    public String getServer() {
+        return mServer;
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    /**
+     * @return seconds the advertisement stays valid, from the CACHE-CONTROL max-age directive, or 0
+     * when the response did not carry one.
+     */
+    public int getMaxAge() {
+        return mMaxAge;
+    }
+
+    /**
+     * @return the BOOTID.UPNP.ORG header, or -1 when the device did not send one.
+     */
+    public int getBootId() {
+        return mBootId;
+    }
+
+    /**
+     * @return the CONFIGID.UPNP.ORG header, or -1 when the device did not send one.
+     */
+    public int getConfigId() {
+        return mConfigId;
+    }
+
+    /**
+     * @return the description document, or {@code null} when it was not fetched yet or
+     * the {@link DescriptionLoader} is configured not to retain documents
+     */
+    public String getDescriptionXML() {
+        return mDescription != null ? mDescription.getXml() : null;
+    }
+
+    /**
+     * @return the services of the root device. Parsed from the retained description on first
+     * access; empty until the description is fetched, or when documents are not retained.
+     */
+    @NonNull
+    public List<UPnPService> getServices() {
+        return getTree().getServices();
+    }
+
+    /**
+     * @return the icons of the root device, parsed lazily like {@link #getServices()}
+     */
+    @NonNull
+    public List<UPnPIcon> getIcons() {
+        return getTree().getIcons();
+    }
+
+    /**
+     * @return the devices listed in the {@code deviceList} of the root device, each with its own
+     * services, icons and embedded devices, parsed lazily like {@link #getServices()}
+     */
+    @NonNull
+    public List<UPnPEmbeddedDevice> getEmbeddedDevices() {
+        return getTree().getEmbeddedDevices();
+    }
+
+    @NonNull
+    private UPnPEmbeddedDevice getTree() {
+        final DeviceDescription description = mDescription;
+        return description != null ? description.getTree() : UPnPEmbeddedDevice.EMPTY;
+    }
+
+    @Nullable
+    DeviceDescription getDescription() {
+        return mDescription;
+    }
+
+    public String getDeviceType() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.deviceType);
+    }
+
+    public String getFriendlyName() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.friendlyName);
+    }
+
+    public String getPresentationURL() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.presentationURL);
+    }
+
+    public String getSerialNumber() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.serialNumber);
+    }
+
+    public String getModelName() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.modelName);
+    }
+
+    public String getModelNumber() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.modelNumber);
+    }
+
+    public String getModelURL() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.modelURL);
+    }
+
+    public String getManufacturer() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.manufacturer);
+    }
+
+    public String getManufacturerURL() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.manufacturerURL);
+    }
+
+    public String getUDN() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.UDN);
+    }
+
+    @NonNull
+    private static String orEmpty(@Nullable String value) {
+        return value == null ? "" : value;
+    }
+
+    public String getURLBase() {
+        final DeviceDescription description = mDescription;
+        return description == null ? null : orEmpty(description.URLBase);
+    }
+}
@@ -0,0 +1,122 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@code <device>} nested in the {@code deviceList} of a description, with its own services,
+ * icons and embedded devices.
+ */
+public final class UPnPEmbeddedDevice {
+
+    static final UPnPEmbeddedDevice EMPTY = new UPnPEmbeddedDevice();
+
+    @NonNull
+    String deviceType = "";
+    @NonNull
+    String friendlyName = "";
+    @NonNull
+    String manufacturer = "";
+    @NonNull
+    String manufacturerURL = "";
+    @NonNull
+    String modelDescription = "";
+    @NonNull
+    String modelName = "";
+    @NonNull
+    String modelNumber = "";
+    @NonNull
+    String modelURL = "";
+    @NonNull
+    String serialNumber = "";
+    @NonNull
+    String UDN = "";
+    @NonNull
+    String presentationURL = "";
+    @NonNull
+    List<UPnPService> services = Collections.emptyList();
+    @NonNull
+    List<UPnPIcon> icons = Collections.emptyList();
+    @NonNull
+    List<UPnPEmbeddedDevice> devices = Collections.emptyList();
+
+    UPnPEmbeddedDevice() {
+    }
+
+    @NonNull
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    @NonNull
+    public String getFriendlyName() {
+        return friendlyName;
+    }
+
+    @NonNull
+    public String getManufacturer() {
+        return manufacturer;
+    }
+
+    @NonNull
+    public String getManufacturerURL() {
+        return manufacturerURL;
+    }
+
+    @NonNull
+    public String getModelDescription() {
+        return modelDescription;
+    }
+
+    @NonNull
+    public String getModelName() {
+        return modelName;
+    }
+
+    @NonNull
+    public String getModelNumber() {
+        return modelNumber;
+    }
+
+    @NonNull
+    public String getModelURL() {
+        return modelURL;
+    }
+
+    @NonNull
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    @NonNull
+    public String getUDN() {
+        return UDN;
+    }
+
+    @NonNull
+    public String getPresentationURL() {
+        return presentationURL;
+    }
+
+    @NonNull
+    public List<UPnPService> getServices() {
+        return services;
+    }
+
+    @NonNull
+    public List<UPnPIcon> getIcons() {
+        return icons;
+    }
+
+    @NonNull
+    public List<UPnPEmbeddedDevice> getEmbeddedDevices() {
+        return devices;
+    }
+
+    @NonNull
+    public String toString() {
+        return "FriendlyName: " + friendlyName + ", DeviceType: " + deviceType + ", UDN: " + UDN;
+    }
+}
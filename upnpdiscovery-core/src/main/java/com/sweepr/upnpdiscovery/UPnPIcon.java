@@ -0,0 +1,53 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+/**
+ * One {@code <icon>} entry of a device description. Dimensions the device left out or garbled
+ * are reported as 0.
+ */
+public final class UPnPIcon {
+
+    @NonNull
+    private final String mMimeType;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mDepth;
+    @NonNull
+    private final String mURL;
+
+    UPnPIcon(@NonNull String mimeType, int width, int height, int depth, @NonNull String url) {
+        mMimeType = mimeType;
+        mWidth = width;
+        mHeight = height;
+        mDepth = depth;
+        mURL = url;
+    }
+
+    @NonNull
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getDepth() {
+        return mDepth;
+    }
+
+    @NonNull
+    public String getURL() {
+        return mURL;
+    }
+
+    @NonNull
+    public String toString() {
+        return mMimeType + " " + mWidth + "x" + mHeight + "x" + mDepth + " " + mURL;
+    }
+}
@@ -0,0 +1,60 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+/**
+ * One {@code <service>} entry of a device description. URLs are returned as written in the
+ * document, usually relative to the URLBase or the LOCATION of the device.
+ */
+public final class UPnPService {
+
+    @NonNull
+    private final String mServiceType;
+    @NonNull
+    private final String mServiceId;
+    @NonNull
+    private final String mSCPDURL;
+    @NonNull
+    private final String mControlURL;
+    @NonNull
+    private final String mEventSubURL;
+
+    UPnPService(@NonNull String serviceType, @NonNull String serviceId, @NonNull String scpdUrl,
+                @NonNull String controlUrl, @NonNull String eventSubUrl) {
+        mServiceType = serviceType;
+        mServiceId = serviceId;
+        mSCPDURL = scpdUrl;
+        mControlURL = controlUrl;
+        mEventSubURL = eventSubUrl;
+    }
+
+    @NonNull
+    public String getServiceType() {
+        return mServiceType;
+    }
+
+    @NonNull
+    public String getServiceId() {
+        return mServiceId;
+    }
+
+    @NonNull
+    public String getSCPDURL() {
+        return mSCPDURL;
+    }
+
+    @NonNull
+    public String getControlURL() {
+        return mControlURL;
+    }
+
+    @NonNull
+    public String getEventSubURL() {
+        return mEventSubURL;
+    }
+
+    @NonNull
+    public String toString() {
+        return mServiceType + " (" + mServiceId + ")";
+    }
+}
@@ -0,0 +1,90 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link HttpClient} on top of {@link HttpURLConnection}, available both on Android and on the
+ * JVM. Released responses leave their connection in the platform's keep-alive pool, which skips
+ * the TCP handshake of the next description from the same device.
+ */
+public final class UrlConnectionHttpClient implements HttpClient {
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 2500;
+
+    private final int mTimeoutMillis;
+
+    public UrlConnectionHttpClient() {
+        this(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis connect and read timeout
+     */
+    public UrlConnectionHttpClient(int timeoutMillis) {
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    @NonNull
+    @Override
+    public Response get(@NonNull String url, @NonNull Map<String, String> headers) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(mTimeoutMillis);
+            connection.setReadTimeout(mTimeoutMillis);
+            connection.setUseCaches(false);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            final int status = connection.getResponseCode();
+            return new Response() {
+                @Override
+                public int getStatus() {
+                    return status;
+                }
+
+                @Nullable
+                @Override
+                public String getHeader(@NonNull String name) {
+                    return connection.getHeaderField(name);
+                }
+
+                @NonNull
+                @Override
+                public InputStream getBody() throws IOException {
+                    return connection.getInputStream();
+                }
+
+                @Override
+                public void release() {
+                    // Closing the body rather than disconnecting lets HttpURLConnection discard
+                    // what is left of it and pool the connection.
+                    try {
+                        final InputStream body = status < HttpURLConnection.HTTP_BAD_REQUEST
+                                ? connection.getInputStream() : connection.getErrorStream();
+                        if (body != null) {
+                            body.close();
+                        }
+                    } catch (IOException e) {
+                        connection.disconnect();
+                    }
+                }
+
+                @Override
+                public void close() {
+                    connection.disconnect();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+}
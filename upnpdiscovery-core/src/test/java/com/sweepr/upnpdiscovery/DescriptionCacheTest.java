@@ -0,0 +1,35 @@
+package com.sweepr.upnpdiscovery;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DescriptionCacheTest {
+    @Test
+    public void evicts_least_recently_used_entry() {
+        final DescriptionCache cache = new DescriptionCache(2);
+        cache.put("http://a", new DescriptionCache.Entry(new DeviceDescription(), null, null, 10));
+        cache.put("http://b", new DescriptionCache.Entry(new DeviceDescription(), null, null, 10));
+        cache.get("http://a");
+        cache.put("http://c", new DescriptionCache.Entry(new DeviceDescription(), null, null, 10));
+
+        assertNotNull(cache.get("http://a"));
+        assertNull(cache.get("http://b"));
+        assertNotNull(cache.get("http://c"));
+    }
+
+    @Test
+    public void refresh_extends_expiry_and_keeps_validators() {
+        final DescriptionCache cache = new DescriptionCache(4);
+        final DeviceDescription description = new DeviceDescription();
+        cache.put("http://a", new DescriptionCache.Entry(description, "\"v1\"", null, 10));
+        assertFalse(cache.get("http://a").isFresh(20));
+
+        cache.refresh("http://a", 30);
+
+        final DescriptionCache.Entry entry = cache.get("http://a");
+        assertTrue(entry.isFresh(20));
+        assertTrue(entry.canRevalidate());
+        assertSame(description, entry.description);
+    }
+}
@@ -0,0 +1,398 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DescriptionLoaderTest {
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\"?>\n" +
+            "<root><device><friendlyName>NAS</friendlyName><UDN>uuid:1234</UDN></device></root>\n";
+
+    private ExecutorService mWorkers;
+
+    /** Answers after a short delay, recording how many requests each host sees at once. */
+    private static final class SlowHttpClient implements HttpClient {
+        final Map<String, Integer> inFlight = new HashMap<>();
+        final Map<String, Integer> maxPerHost = new HashMap<>();
+        int total;
+        int maxTotal;
+        int released;
+        int closed;
+
+        @NonNull
+        @Override
+        public Response get(@NonNull String url, @NonNull Map<String, String> headers) throws InterruptedIOException {
+            final String host = DescriptionLoader.hostOf(url);
+            synchronized (this) {
+                final Integer count = inFlight.get(host);
+                final int now = count == null ? 1 : count + 1;
+                inFlight.put(host, now);
+                final Integer max = maxPerHost.get(host);
+                maxPerHost.put(host, max == null ? now : Math.max(max, now));
+                maxTotal = Math.max(maxTotal, ++total);
+            }
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+            return new Response() {
+                @Override
+                public int getStatus() {
+                    return 200;
+                }
+
+                @Nullable
+                @Override
+                public String getHeader(@NonNull String name) {
+                    return null;
+                }
+
+                @NonNull
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(DOCUMENT.getBytes(SsdpHeaders.UTF_8));
+                }
+
+                @Override
+                public void release() {
+                    synchronized (SlowHttpClient.this) {
+                        released++;
+                        done();
+                    }
+                }
+
+                @Override
+                public void close() {
+                    synchronized (SlowHttpClient.this) {
+                        closed++;
+                        done();
+                    }
+                }
+
+                private void done() {
+                    inFlight.put(host, inFlight.get(host) - 1);
+                    total--;
+                }
+            };
+        }
+    }
+
+    /** Holds every request until {@link #open()} is called. */
+    private static final class GatedHttpClient implements HttpClient {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        int requests;
+        int closed;
+
+        void open() {
+            gate.countDown();
+        }
+
+        @NonNull
+        @Override
+        public Response get(@NonNull String url, @NonNull Map<String, String> headers) throws InterruptedIOException {
+            synchronized (this) {
+                requests++;
+            }
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+            return new Response() {
+                @Override
+                public int getStatus() {
+                    return 200;
+                }
+
+                @Nullable
+                @Override
+                public String getHeader(@NonNull String name) {
+                    return null;
+                }
+
+                @NonNull
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(DOCUMENT.getBytes(SsdpHeaders.UTF_8));
+                }
+
+                @Override
+                public void release() {
+                }
+
+                @Override
+                public void close() {
+                    synchronized (GatedHttpClient.this) {
+                        closed++;
+                    }
+                }
+            };
+        }
+    }
+
+    /** Serves the document with validators, then answers 304 to requests that carry them. */
+    private static final class RevalidatingHttpClient implements HttpClient {
+        final List<Map<String, String>> requests = new ArrayList<>();
+
+        @NonNull
+        @Override
+        public synchronized Response get(@NonNull String url, @NonNull final Map<String, String> headers) {
+            requests.add(headers);
+            final boolean conditional = "\"v1\"".equals(headers.get("If-None-Match"));
+            return new Response() {
+                @Override
+                public int getStatus() {
+                    return conditional ? 304 : 200;
+                }
+
+                @Nullable
+                @Override
+                public String getHeader(@NonNull String name) {
+                    if (name.equals("ETag")) {
+                        return "\"v1\"";
+                    }
+                    return name.equals("Last-Modified") ? "Sat, 17 Oct 2026 10:00:00 GMT" : null;
+                }
+
+                @NonNull
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(DOCUMENT.getBytes(SsdpHeaders.UTF_8));
+                }
+
+                @Override
+                public void release() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /** Records the outcome of each fetch by name. */
+    private static ResultHandler<DeviceDescription> recorder(final String name, final List<String> results,
+                                                           final CountDownLatch done) {
+        return new ResultHandler<DeviceDescription>() {
+            @Override
+            public void onSuccess(DeviceDescription data) {
+                results.add(name + " " + data.friendlyName);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                results.add(name + " failed");
+                done.countDown();
+            }
+        };
+    }
+
+    @Before
+    public void setUp() {
+        mWorkers = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        mWorkers.shutdownNow();
+    }
+
+    @Test
+    public void host_of_groups_by_host_and_port() {
+        assertEquals("192.168.1.2:49152", DescriptionLoader.hostOf("http://192.168.1.2:49152/desc.xml"));
+        assertEquals("nas.local", DescriptionLoader.hostOf("HTTP://NAS.local?x=1"));
+        assertEquals("[fe80::1]:80", DescriptionLoader.hostOf("http://[fe80::1]:80/a/b.xml"));
+    }
+
+    @Test
+    public void limits_requests_per_host_and_keeps_hosts_parallel() throws Exception {
+        final SlowHttpClient http = new SlowHttpClient();
+        final DescriptionLoader loader = new DescriptionLoader(mWorkers, http, 8, 2, 64, 64 * 1024, true);
+        final CountDownLatch done = new CountDownLatch(12);
+        for (int i = 0; i < 12; i++) {
+            final String host = i % 2 == 0 ? "192.168.1.2:49152" : "192.168.1.3:8080";
+            loader.fetch("http://" + host + "/desc" + i + ".xml", 0, this, new ResultHandler<DeviceDescription>() {
+                @Override
+                public void onSuccess(DeviceDescription data) {
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // Connections are released after the handlers ran; let the workers get there.
+        mWorkers.shutdown();
+        assertTrue(mWorkers.awaitTermination(5, TimeUnit.SECONDS));
+        loader.shutdown();
+
+        synchronized (http) {
+            assertEquals(Integer.valueOf(2), http.maxPerHost.get("192.168.1.2:49152"));
+            assertEquals(Integer.valueOf(2), http.maxPerHost.get("192.168.1.3:8080"));
+            assertTrue("max in flight " + http.maxTotal, http.maxTotal > 2);
+            assertEquals(12, http.released);
+            assertEquals(0, http.closed);
+        }
+    }
+
+    @Test
+    public void concurrent_fetches_of_one_url_share_one_request() throws Exception {
+        final GatedHttpClient http = new GatedHttpClient();
+        final DescriptionLoader loader = new DescriptionLoader(mWorkers, http, 8, 2, 64, 64 * 1024, true);
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            loader.fetch("http://192.168.1.2:80/desc.xml", 0, "tag" + i, recorder("tag" + i, results, done));
+        }
+        assertTrue(http.entered.await(5, TimeUnit.SECONDS));
+
+        http.open();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, http.requests);
+        Collections.sort(results);
+        assertEquals("[tag0 NAS, tag1 NAS, tag2 NAS, tag3 NAS, tag4 NAS]", results.toString());
+    }
+
+    @Test
+    public void cancelling_one_tag_keeps_shared_request_for_the_others() throws Exception {
+        final GatedHttpClient http = new GatedHttpClient();
+        final DescriptionLoader loader = new DescriptionLoader(mWorkers, http, 8, 2, 64, 64 * 1024, true);
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(2);
+        loader.fetch("http://192.168.1.2:80/desc.xml", 0, "a", recorder("a", results, done));
+        loader.fetch("http://192.168.1.2:80/desc.xml", 0, "b", recorder("b", results, done));
+        loader.fetch("http://192.168.1.2:80/desc.xml", 0, "c", recorder("c", results, done));
+        assertTrue(http.entered.await(5, TimeUnit.SECONDS));
+
+        loader.cancel("a");
+        http.open();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        mWorkers.shutdown();
+        assertTrue(mWorkers.awaitTermination(5, TimeUnit.SECONDS));
+
+        Collections.sort(results);
+        assertEquals("[b NAS, c NAS]", results.toString());
+        assertEquals(1, http.requests);
+        assertEquals(0, http.closed);
+    }
+
+    @Test
+    public void cancelling_every_tag_drops_the_request() throws Exception {
+        final GatedHttpClient http = new GatedHttpClient();
+        final DescriptionLoader loader = new DescriptionLoader(mWorkers, http, 8, 2, 64, 64 * 1024, true);
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        loader.fetch("http://192.168.1.2:80/desc.xml", 0, "a", recorder("a", results, done));
+        loader.fetch("http://192.168.1.2:80/desc.xml", 0, "b", recorder("b", results, done));
+        assertTrue(http.entered.await(5, TimeUnit.SECONDS));
+
+        loader.cancel("a");
+        loader.cancel("b");
+        http.open();
+        mWorkers.shutdown();
+        assertTrue(mWorkers.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertTrue(results.isEmpty());
+        assertEquals(1, http.closed);
+    }
+
+    @Test
+    public void not_modified_refreshes_cached_description() throws Exception {
+        final RevalidatingHttpClient http = new RevalidatingHttpClient();
+        final DescriptionLoader loader = new DescriptionLoader(mWorkers, http, 8, 2, 64, 64 * 1024, true);
+        final String url = "http://192.168.1.2:80/desc.xml";
+        final DeviceDescription[] descriptions = new DeviceDescription[3];
+        for (int i = 0; i < descriptions.length; i++) {
+            final int index = i;
+            final CountDownLatch done = new CountDownLatch(1);
+            // The first copy expires right away; the revalidated one is good for a minute.
+            loader.fetch(url, i == 0 ? 0 : 60, this, new ResultHandler<DeviceDescription>() {
+                @Override
+                public void onSuccess(DeviceDescription data) {
+                    descriptions[index] = data;
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+
+        synchronized (http) {
+            assertEquals(2, http.requests.size());
+            assertTrue(http.requests.get(0).isEmpty());
+            assertEquals("\"v1\"", http.requests.get(1).get("If-None-Match"));
+            assertEquals("Sat, 17 Oct 2026 10:00:00 GMT", http.requests.get(1).get("If-Modified-Since"));
+        }
+        assertSame(descriptions[0], descriptions[1]);
+        assertSame(descriptions[0], descriptions[2]);
+    }
+
+    @Test
+    public void shutdown_fails_in_flight_and_later_fetches() throws Exception {
+        final GatedHttpClient http = new GatedHttpClient();
+        final DescriptionLoader loader = new DescriptionLoader(mWorkers, http, 8, 2, 64, 64 * 1024, true);
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final CountDownLatch done = new CountDownLatch(3);
+        final ResultHandler<DeviceDescription> handler = new ResultHandler<DeviceDescription>() {
+            @Override
+            public void onSuccess(DeviceDescription data) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                errors.add(e);
+                done.countDown();
+            }
+        };
+        loader.fetch("http://192.168.1.2:80/desc.xml", 0, "a", handler);
+        loader.fetch("http://192.168.1.2:80/desc.xml", 0, "b", handler);
+        assertTrue(http.entered.await(5, TimeUnit.SECONDS));
+
+        loader.shutdown();
+        loader.fetch("http://192.168.1.3:80/desc.xml", 0, "c", handler);
+        http.open();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        mWorkers.shutdown();
+        assertTrue(mWorkers.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(3, errors.size());
+        for (Exception e : errors) {
+            assertTrue(e.toString(), e instanceof IllegalStateException);
+        }
+        assertEquals(1, http.requests);
+        assertEquals(1, http.closed);
+    }
+}
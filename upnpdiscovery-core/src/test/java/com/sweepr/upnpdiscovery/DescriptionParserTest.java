@@ -0,0 +1,126 @@
+package com.sweepr.upnpdiscovery;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class DescriptionParserTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\"?>\n" +
+            "<root xmlns=\"urn:schemas-upnp-org:device-1-0\">\n" +
+            "<specVersion><major>1</major><minor>0</minor></specVersion>\n" +
+            "<device>\n" +
+            "<deviceType>urn:schemas-upnp-org:device:MediaServer:1</deviceType>\n" +
+            "<friendlyName>NAS</friendlyName>\n" +
+            "<manufacturer>Acme</manufacturer>\n" +
+            "<modelName>Box</modelName>\n" +
+            "<UDN>uuid:1234</UDN>\n" +
+            "<serviceList><service><serviceType>urn:schemas-upnp-org:service:ContentDirectory:1</serviceType></service></serviceList>\n" +
+            "<presentationURL>http://nas/</presentationURL>\n" +
+            "</device>\n" +
+            "</root>\n";
+
+    /** Remembers how far the parser read. */
+    private static final class TrackingStream extends ByteArrayInputStream {
+        TrackingStream(byte[] data) {
+            super(data);
+        }
+
+        int position() {
+            return pos;
+        }
+    }
+
+    @Test
+    public void retains_whole_document_and_reads_every_field() throws IOException {
+        final byte[] data = DOCUMENT.getBytes(UTF_8);
+        final DeviceDescription description = DescriptionParser.parse(new TrackingStream(data), null, data.length, true);
+
+        assertEquals("NAS", description.friendlyName);
+        assertEquals("uuid:1234", description.UDN);
+        assertEquals("http://nas/", description.presentationURL);
+        assertEquals(DOCUMENT, description.getXml());
+    }
+
+    @Test
+    public void skips_lists_and_reads_presentation_url_when_not_retained() throws IOException {
+        final StringBuilder padded = new StringBuilder(DOCUMENT);
+        final String marker = "</serviceList>";
+        final StringBuilder services = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            services.append("<service><serviceType>urn:x:service:Padding:1</serviceType></service>");
+        }
+        padded.insert(padded.indexOf(marker), services);
+        final byte[] data = padded.toString().getBytes(UTF_8);
+
+        final DeviceDescription description = DescriptionParser.parse(new TrackingStream(data), "UTF-8", data.length, false);
+
+        assertEquals("NAS", description.friendlyName);
+        assertEquals("Acme", description.manufacturer);
+        assertEquals("uuid:1234", description.UDN);
+        assertEquals("http://nas/", description.presentationURL);
+        assertNull(description.getXml());
+    }
+
+    @Test
+    public void stops_reading_at_presentation_url_when_not_retained() throws IOException {
+        final StringBuilder padded = new StringBuilder(DOCUMENT);
+        final StringBuilder vendor = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            vendor.append("<x:padding>vendor extension</x:padding>");
+        }
+        padded.insert(padded.indexOf("</device>"), vendor);
+        final byte[] data = padded.toString().getBytes(UTF_8);
+
+        final TrackingStream in = new TrackingStream(data);
+        final DeviceDescription description = DescriptionParser.parse(in, "UTF-8", data.length, false);
+
+        assertEquals("http://nas/", description.presentationURL);
+        assertTrue(in.position() < data.length / 2);
+    }
+
+    @Test
+    public void parses_services_icons_and_embedded_devices_on_demand() {
+        final String document = "<?xml version=\"1.0\"?>\n" +
+                "<root><device>\n" +
+                "<friendlyName>Router</friendlyName>\n" +
+                "<iconList><icon><mimetype>image/png</mimetype><width>48</width><height>48</height><depth>24</depth><url>/icon.png</url></icon></iconList>\n" +
+                "<serviceList><service><serviceType>urn:schemas-upnp-org:service:Layer3Forwarding:1</serviceType>" +
+                "<serviceId>urn:upnp-org:serviceId:L3Forwarding1</serviceId><SCPDURL>/L3F.xml</SCPDURL>" +
+                "<controlURL>/ctl/L3F</controlURL><eventSubURL>/evt/L3F</eventSubURL></service></serviceList>\n" +
+                "<deviceList><device><deviceType>urn:schemas-upnp-org:device:WANDevice:1</deviceType>" +
+                "<deviceList><device><friendlyName>WANConnectionDevice</friendlyName></device></deviceList>" +
+                "</device></deviceList>\n" +
+                "</device></root>";
+
+        final UPnPDevice device = UPnPDevice.fromXml(document);
+
+        assertEquals("Router", device.getFriendlyName());
+        assertEquals(1, device.getServices().size());
+        assertEquals("/ctl/L3F", device.getServices().get(0).getControlURL());
+        assertEquals(48, device.getIcons().get(0).getWidth());
+        assertEquals("/icon.png", device.getIcons().get(0).getURL());
+
+        final UPnPEmbeddedDevice wan = device.getEmbeddedDevices().get(0);
+        assertEquals("urn:schemas-upnp-org:device:WANDevice:1", wan.getDeviceType());
+        assertEquals("WANConnectionDevice", wan.getEmbeddedDevices().get(0).getFriendlyName());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejects_document_above_limit() throws IOException {
+        final byte[] data = DOCUMENT.getBytes(UTF_8);
+        DescriptionParser.parse(new ByteArrayInputStream(data), null, data.length - 1, true);
+    }
+
+    @Test
+    public void reads_charset_from_content_type() {
+        assertEquals("ISO-8859-1", DescriptionLoader.charsetOf("text/xml; charset=\"ISO-8859-1\""));
+        assertNull(DescriptionLoader.charsetOf("text/xml"));
+        assertNull(DescriptionLoader.charsetOf(null));
+    }
+}
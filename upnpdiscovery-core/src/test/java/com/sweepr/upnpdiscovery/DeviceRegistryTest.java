@@ -0,0 +1,140 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ManualScheduler mScheduler;
+    private DeviceRegistry mRegistry;
+    private final List<String> mEvents = new ArrayList<>();
+
+    private static UPnPDevice device(String uuid, int maxAge, int bootId, int configId) {
+        return new UPnPDevice("192.168.1.2", "HTTP/1.1 200 OK\r\n" +
+                "CACHE-CONTROL: max-age=" + maxAge + "\r\n" +
+                "LOCATION: http://192.168.1.2:80/" + uuid + ".xml\r\n" +
+                "ST: upnp:rootdevice\r\n" +
+                "USN: uuid:" + uuid + "::upnp:rootdevice\r\n" +
+                "BOOTID.UPNP.ORG: " + bootId + "\r\n" +
+                "CONFIGID.UPNP.ORG: " + configId + "\r\n" +
+                "\r\n");
+    }
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualScheduler();
+        mRegistry = new DeviceRegistry(mScheduler);
+        mRegistry.addListener(new DeviceRegistry.Listener() {
+            @Override
+            public void onDeviceAdded(@NonNull UPnPDevice device) {
+                mEvents.add("added " + device.getUUID());
+            }
+
+            @Override
+            public void onDeviceUpdated(@NonNull UPnPDevice device) {
+                mEvents.add("updated " + device.getUUID());
+            }
+
+            @Override
+            public void onDeviceRemoved(@NonNull UPnPDevice device) {
+                mEvents.add("removed " + device.getUUID());
+            }
+        });
+    }
+
+    @Test
+    public void refresh_moves_deadline() {
+        mRegistry.put(device("a", 10, 1, 1));
+        mScheduler.advance(8000);
+        mRegistry.put(device("a", 10, 1, 1));
+        mScheduler.advance(5000);
+        assertEquals(1, mRegistry.size());
+
+        mScheduler.advance(5000);
+        assertEquals(0, mRegistry.size());
+        assertEquals("[added uuid:a, removed uuid:a]", mEvents.toString());
+    }
+
+    @Test
+    public void evicts_in_deadline_order_with_one_timer() {
+        mRegistry.put(device("a", 30, 1, 1));
+        mRegistry.put(device("b", 10, 1, 1));
+        mRegistry.put(device("c", 20, 1, 1));
+        assertEquals(1, mScheduler.delayed.size());
+        mEvents.clear();
+
+        mScheduler.advance(15000);
+        assertEquals("[removed uuid:b]", mEvents.toString());
+        assertEquals(1, mScheduler.delayed.size());
+
+        mScheduler.advance(20000);
+        assertEquals("[removed uuid:b, removed uuid:c, removed uuid:a]", mEvents.toString());
+        assertTrue(mScheduler.delayed.isEmpty());
+    }
+
+    @Test
+    public void equal_deadlines_stay_distinct() {
+        mRegistry.put(device("a", 10, 1, 1));
+        mRegistry.put(device("b", 10, 1, 1));
+        mRegistry.put(device("c", 10, 1, 1));
+        assertEquals(3, mRegistry.size());
+
+        mRegistry.remove(device("b", 10, 1, 1));
+        assertEquals(2, mRegistry.size());
+        mEvents.clear();
+
+        mScheduler.advance(10000);
+        assertEquals("[removed uuid:a, removed uuid:c]", mEvents.toString());
+        assertEquals(0, mRegistry.size());
+    }
+
+    @Test
+    public void reports_update_only_on_bootid_or_configid_change() {
+        mRegistry.put(device("a", 1800, 1, 1));
+        mRegistry.put(device("a", 1800, 1, 1));
+        mRegistry.put(device("a", 1800, 2, 1));
+        mRegistry.put(device("a", 1800, 2, 1));
+        mRegistry.put(device("a", 1800, 2, 7));
+
+        assertEquals("[added uuid:a, updated uuid:a, updated uuid:a]", mEvents.toString());
+        assertEquals(7, mRegistry.getDevices().get(0).getConfigId());
+    }
+
+    @Test
+    public void restores_snapshot_devices_with_remaining_lifetime() throws Exception {
+        final DeviceSnapshot snapshot = DeviceSnapshot.open(mFolder.newFile("devices.snapshot"), false);
+        snapshot.put(device("a", 1800, 1, 1));
+        snapshot.put(device("b", 60, 1, 1));
+        final long saved = snapshot.getExpiresAt(device("a", 1800, 1, 1)) - 1800 * 1000L;
+
+        // Ten minutes later "b" has lapsed and "a" has twenty minutes left.
+        mRegistry.persistTo(snapshot, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        }, saved + 600 * 1000L);
+        assertEquals("[added uuid:a]", mEvents.toString());
+        assertEquals(1, snapshot.size());
+
+        mScheduler.advance(1199 * 1000L);
+        assertEquals(1, mRegistry.size());
+        mScheduler.advance(1000);
+        assertEquals(0, mRegistry.size());
+        assertEquals(0, snapshot.size());
+        snapshot.close();
+    }
+}
@@ -0,0 +1,127 @@
+package com.sweepr.upnpdiscovery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static UPnPDevice device(int index, int bootId) {
+        final UPnPDevice device = new UPnPDevice("192.168.1." + (index % 250 + 2), "HTTP/1.1 200 OK\r\n" +
+                "CACHE-CONTROL: max-age=1800\r\n" +
+                "LOCATION: http://192.168.1.2:" + (1000 + index) + "/desc.xml\r\n" +
+                "SERVER: Linux/3.4 UPnP/1.1 MiniUPnPd/2.0\r\n" +
+                "ST: upnp:rootdevice\r\n" +
+                "USN: uuid:device-" + index + "::upnp:rootdevice\r\n" +
+                "BOOTID.UPNP.ORG: " + bootId + "\r\n" +
+                "\r\n");
+        device.update("<?xml version=\"1.0\"?>\n<root><device>" +
+                "<deviceType>urn:schemas-upnp-org:device:MediaRenderer:1</deviceType>" +
+                "<friendlyName>Speaker " + index + "</friendlyName>" +
+                "<manufacturer>ACME</manufacturer>" +
+                "<UDN>uuid:device-" + index + "</UDN>" +
+                "</device></root>\n");
+        return device;
+    }
+
+    @Test
+    public void reopen_restores_devices() throws Exception {
+        final long saved = System.currentTimeMillis();
+        final File file = mFolder.newFile("devices.snapshot");
+        final DeviceSnapshot snapshot = DeviceSnapshot.open(file, true);
+        snapshot.put(device(1, 7));
+        snapshot.put(device(2, 7));
+        snapshot.remove(device(1, 7));
+        snapshot.close();
+
+        final DeviceSnapshot reopened = DeviceSnapshot.open(file, true);
+        final List<UPnPDevice> devices = reopened.getDevices();
+        assertEquals(1, devices.size());
+        final UPnPDevice device = devices.get(0);
+        assertEquals("Speaker 2", device.getFriendlyName());
+        assertEquals("uuid:device-2", device.getUDN());
+        assertEquals("http://192.168.1.2:1002/desc.xml", device.getLocation());
+        assertEquals(1800, device.getMaxAge());
+        assertEquals(7, device.getBootId());
+        assertTrue(device.getHeader().contains("USN: uuid:device-2::upnp:rootdevice"));
+        assertTrue(device.getDescriptionXML().contains("<friendlyName>Speaker 2</friendlyName>"));
+        assertTrue(reopened.isFresh(device));
+        final long expiresAt = reopened.getExpiresAt(device);
+        assertTrue(expiresAt >= saved + 1800 * 1000L && expiresAt <= System.currentTimeMillis() + 1800 * 1000L);
+        reopened.close();
+    }
+
+    @Test
+    public void reopen_drops_torn_record() throws Exception {
+        final File file = mFolder.newFile("devices.snapshot");
+        final DeviceSnapshot snapshot = DeviceSnapshot.open(file, false);
+        snapshot.put(device(1, 1));
+        snapshot.close();
+        final long length = file.length();
+
+        final FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[]{0, 0, 1, 0, 1, 2, 3});
+        out.close();
+
+        final DeviceSnapshot reopened = DeviceSnapshot.open(file, false);
+        assertEquals(1, reopened.size());
+        assertNull(reopened.getDevices().get(0).getDescriptionXML());
+        assertEquals(length, file.length());
+        reopened.close();
+    }
+
+    @Test
+    public void put_skips_unchanged_device_and_compacts_changed_one() throws Exception {
+        final File file = mFolder.newFile("devices.snapshot");
+        final DeviceSnapshot snapshot = DeviceSnapshot.open(file, false);
+        snapshot.put(device(1, 1));
+        final long length = file.length();
+        snapshot.put(device(1, 1));
+        assertEquals(length, file.length());
+
+        for (int bootId = 2; bootId < 500; bootId++) {
+            snapshot.put(device(1, bootId));
+        }
+        snapshot.close();
+        assertTrue("length " + file.length(), file.length() < 100 * length);
+
+        final DeviceSnapshot reopened = DeviceSnapshot.open(file, false);
+        assertEquals(1, reopened.size());
+        assertEquals(499, reopened.getDevices().get(0).getBootId());
+        reopened.close();
+    }
+
+    @Test
+    public void open_loads_thousand_devices() throws Exception {
+        final File file = mFolder.newFile("devices.snapshot");
+        final List<UPnPDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            devices.add(device(i, 1));
+        }
+        final DeviceSnapshot snapshot = DeviceSnapshot.open(file, false);
+        snapshot.putAll(devices);
+        snapshot.close();
+
+        // Warm up the class loading and JIT a little before timing.
+        DeviceSnapshot.open(file, false).close();
+        final long start = System.nanoTime();
+        final DeviceSnapshot reopened = DeviceSnapshot.open(file, false);
+        final long millis = (System.nanoTime() - start) / 1000000;
+        // Loose bound so slow CI machines pass; it takes a few milliseconds on a laptop.
+        assertTrue("loaded in " + millis + " ms", millis < 1000);
+
+        assertEquals(1000, reopened.size());
+        assertEquals("Speaker 999", reopened.getDevices().get(999).getFriendlyName());
+        reopened.close();
+    }
+}
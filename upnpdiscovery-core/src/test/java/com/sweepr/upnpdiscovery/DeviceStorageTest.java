@@ -0,0 +1,41 @@
+package com.sweepr.upnpdiscovery;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class DeviceStorageTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @After
+    public void tearDown() {
+        DeviceStorage.setCompact(false);
+    }
+
+    @Test
+    public void shares_equal_values_only_in_compact_mode() {
+        final String a = new String("Linux/3.4 UPnP/1.1 MiniUPnPd/2.0");
+        final String b = new String("Linux/3.4 UPnP/1.1 MiniUPnPd/2.0");
+        assertNotSame(DeviceStorage.canonical(a), DeviceStorage.canonical(b));
+
+        DeviceStorage.setCompact(true);
+        assertSame(DeviceStorage.canonical(a), DeviceStorage.canonical(b));
+        assertNull(DeviceStorage.canonical(null));
+    }
+
+    @Test
+    public void deflated_document_round_trips() {
+        final StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 200; i++) {
+            xml.append("<service><serviceType>urn:schemas-upnp-org:service:ContentDirectory:1</serviceType></service>");
+        }
+        final byte[] document = xml.append("</root>").toString().getBytes(UTF_8);
+
+        final byte[] deflated = DeviceStorage.deflate(document);
+        assertTrue(deflated.length < document.length / 10);
+        assertArrayEquals(document, DeviceStorage.inflate(deflated, document.length));
+    }
+}
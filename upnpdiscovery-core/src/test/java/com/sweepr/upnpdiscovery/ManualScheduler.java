@@ -0,0 +1,57 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Runs posts at once and delayed tasks when the test moves the clock past them. */
+final class ManualScheduler implements Scheduler {
+    long now = 1000;
+    final List<Runnable> delayed = new ArrayList<>();
+    final List<Long> deadlines = new ArrayList<>();
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    @Override
+    public void post(@NonNull Runnable task) {
+        task.run();
+    }
+
+    @Override
+    public void postDelayed(@NonNull Runnable task, long delayMillis) {
+        delayed.add(task);
+        deadlines.add(now + delayMillis);
+    }
+
+    @Override
+    public void cancel(@NonNull Runnable task) {
+        for (int i = delayed.size() - 1; i >= 0; i--) {
+            if (delayed.get(i) == task) {
+                delayed.remove(i);
+                deadlines.remove(i);
+            }
+        }
+    }
+
+    void advance(long millis) {
+        final long target = now + millis;
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < delayed.size(); i++) {
+                if (deadlines.get(i) <= target && (next == -1 || deadlines.get(i) < deadlines.get(next))) {
+                    next = i;
+                }
+            }
+            if (next == -1) {
+                break;
+            }
+            now = Math.max(now, deadlines.remove(next));
+            delayed.remove(next).run();
+        }
+        now = target;
+    }
+}
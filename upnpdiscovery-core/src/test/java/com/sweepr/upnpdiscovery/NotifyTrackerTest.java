@@ -0,0 +1,167 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class NotifyTrackerTest {
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\"?>\n" +
+            "<root><device><friendlyName>NAS</friendlyName><UDN>uuid:1234</UDN></device></root>\n";
+
+    private ManualScheduler mScheduler;
+    private FakeHttpClient mHttp;
+    private NotifyTracker mTracker;
+    private final List<String> mEvents = new ArrayList<>();
+
+    private static final class FakeHttpClient implements HttpClient {
+        int requests;
+
+        @NonNull
+        @Override
+        public synchronized Response get(@NonNull String url, @NonNull Map<String, String> headers) {
+            requests++;
+            return new Response() {
+                @Override
+                public int getStatus() {
+                    return 200;
+                }
+
+                @Nullable
+                @Override
+                public String getHeader(@NonNull String name) {
+                    return null;
+                }
+
+                @NonNull
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(DOCUMENT.getBytes(SsdpHeaders.UTF_8));
+                }
+
+                @Override
+                public void release() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    private static byte[] notify(String nts, String location, int maxAge, int configId) {
+        return ("NOTIFY * HTTP/1.1\r\n" +
+                "HOST: 239.255.255.250:1900\r\n" +
+                "CACHE-CONTROL: max-age=" + maxAge + "\r\n" +
+                "LOCATION: " + location + "\r\n" +
+                "NT: upnp:rootdevice\r\n" +
+                "NTS: " + nts + "\r\n" +
+                "USN: uuid:1234::upnp:rootdevice\r\n" +
+                "CONFIGID.UPNP.ORG: " + configId + "\r\n" +
+                "\r\n").getBytes(SsdpHeaders.UTF_8);
+    }
+
+    private void receive(byte[] datagram) {
+        mTracker.handleNotify("192.168.1.2", datagram, datagram.length);
+    }
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualScheduler();
+        mHttp = new FakeHttpClient();
+        final DescriptionLoader loader = new DescriptionLoader(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        }, mHttp, 4, 8, 64 * 1024, true);
+        mTracker = new NotifyTracker(mScheduler, loader, new NotifyTracker.Listener() {
+            @Override
+            public void onDeviceAlive(@NonNull UPnPDevice device) {
+                mEvents.add("alive " + device.getFriendlyName());
+            }
+
+            @Override
+            public void onDeviceUpdated(@NonNull UPnPDevice device) {
+                mEvents.add("updated " + device.getLocation());
+            }
+
+            @Override
+            public void onDeviceRefreshed(@NonNull UPnPDevice device) {
+                mEvents.add("refreshed");
+            }
+
+            @Override
+            public void onDeviceByeBye(@NonNull UPnPDevice device) {
+                mEvents.add("byebye " + device.getUUID());
+            }
+        });
+    }
+
+    @Test
+    public void alive_refresh_update_and_byebye() {
+        receive(notify("ssdp:alive", "http://192.168.1.2:80/desc.xml", 1800, 1));
+        receive(notify("ssdp:alive", "http://192.168.1.2:80/desc.xml", 1800, 1));
+        assertEquals(1, mHttp.requests);
+
+        receive(notify("ssdp:update", "http://192.168.1.2:8080/desc.xml", 1800, 2));
+        assertEquals(2, mHttp.requests);
+
+        receive(notify("ssdp:byebye", "http://192.168.1.2:8080/desc.xml", 1800, 2));
+        assertEquals(0, mTracker.size());
+        assertEquals("[alive NAS, refreshed, updated http://192.168.1.2:8080/desc.xml, byebye uuid:1234]",
+                mEvents.toString());
+    }
+
+    @Test
+    public void new_bootid_alone_is_a_refresh() {
+        receive(notify("ssdp:alive", "http://192.168.1.2:80/desc.xml", 1800, 1));
+        final byte[] reboot = new String(notify("ssdp:alive", "http://192.168.1.2:80/desc.xml", 1800, 1),
+                SsdpHeaders.UTF_8).replace("\r\n\r\n", "\r\nBOOTID.UPNP.ORG: 9\r\n\r\n").getBytes(SsdpHeaders.UTF_8);
+        receive(reboot);
+
+        assertEquals(1, mHttp.requests);
+        assertEquals("[alive NAS, refreshed]", mEvents.toString());
+    }
+
+    @Test
+    public void forgets_device_when_max_age_runs_out() {
+        receive(notify("ssdp:alive", "http://192.168.1.2:80/desc.xml", 10, 1));
+        mScheduler.advance(8000);
+        receive(notify("ssdp:alive", "http://192.168.1.2:80/desc.xml", 10, 1));
+
+        mScheduler.advance(5000);
+        assertEquals(1, mTracker.size());
+        mScheduler.advance(5000);
+        assertEquals(0, mTracker.size());
+        assertTrue(mScheduler.delayed.isEmpty());
+        assertEquals("[alive NAS, refreshed, byebye uuid:1234]", mEvents.toString());
+
+        // The next announcement is a new device again.
+        receive(notify("ssdp:alive", "http://192.168.1.2:80/desc.xml", 10, 1));
+        assertEquals("[alive NAS, refreshed, byebye uuid:1234, alive NAS]", mEvents.toString());
+    }
+
+    @Test
+    public void stop_forgets_devices_and_timer() {
+        receive(notify("ssdp:alive", "http://192.168.1.2:80/desc.xml", 10, 1));
+        mTracker.stop();
+
+        assertEquals(0, mTracker.size());
+        assertTrue(mScheduler.delayed.isEmpty());
+        mScheduler.advance(20000);
+        assertEquals("[alive NAS]", mEvents.toString());
+    }
+}
@@ -0,0 +1,32 @@
+package com.sweepr.upnpdiscovery;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SearchRequestTest {
+    @Test
+    public void builds_one_query_per_target() {
+        final SearchRequest request = new SearchRequest(Arrays.asList("upnp:rootdevice", "ssdp:all"));
+        final List<byte[]> queries = request.buildQueries("239.255.255.250", 1900);
+
+        assertEquals(2, queries.size());
+        final SsdpHeaders first = SsdpHeaders.parse(new String(queries.get(0), SsdpHeaders.UTF_8));
+        assertEquals("upnp:rootdevice", first.st);
+        assertTrue(new String(queries.get(1), SsdpHeaders.UTF_8).contains("ST: ssdp:all\r\n\r\n"));
+    }
+
+    @Test
+    public void drops_transmissions_in_second_half_of_mx() {
+        final SearchRequest request = new SearchRequest(Arrays.asList("ssdp:all"), 1, new long[]{300, 0, 900}, 50);
+        final long[] offsets = request.buildSendOffsets(new Random(1));
+
+        assertEquals(2, offsets.length);
+        assertEquals(0, offsets[0]);
+        assertTrue(offsets[1] >= 300 && offsets[1] <= 350);
+    }
+}
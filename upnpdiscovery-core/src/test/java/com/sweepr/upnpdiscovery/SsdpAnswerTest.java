@@ -0,0 +1,50 @@
+package com.sweepr.upnpdiscovery;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+public class SsdpAnswerTest {
+
+    private static SsdpAnswer answer(String location) {
+        final SsdpHeaders headers = SsdpHeaders.parse("HTTP/1.1 200 OK\r\n" +
+                "LOCATION: " + location + "\r\n" +
+                "ST: urn:schemas-upnp-org:device:MediaRenderer:1\r\n" +
+                "USN: uuid:abcd::urn:schemas-upnp-org:device:MediaRenderer:1\r\n" +
+                "\r\n");
+        return new SsdpAnswer().reset(new InetSocketAddress("192.168.1.20", 1900), "wlan0", headers);
+    }
+
+    @Test
+    public void exposes_headers() {
+        final SsdpAnswer answer = answer("http://192.168.1.20:49152/desc.xml");
+        assertEquals("urn:schemas-upnp-org:device:MediaRenderer:1", answer.getST());
+        assertEquals("uuid:abcd", answer.getUUID());
+        assertEquals("wlan0", answer.getInterfaceName());
+    }
+
+    @Test
+    public void splits_location_host_and_port() {
+        SsdpAnswer answer = answer("http://192.168.1.20:49152/desc.xml");
+        assertEquals("192.168.1.20", answer.getLocationHost());
+        assertEquals(49152, answer.getLocationPort());
+
+        answer = answer("http://nas.local/desc.xml");
+        assertEquals("nas.local", answer.getLocationHost());
+        assertEquals(80, answer.getLocationPort());
+
+        answer = answer("http://[fe80::1]:8080/desc.xml");
+        assertEquals("fe80::1", answer.getLocationHost());
+        assertEquals(8080, answer.getLocationPort());
+
+        answer = answer("http://[fe80::1]/desc.xml");
+        assertEquals("fe80::1", answer.getLocationHost());
+        assertEquals(80, answer.getLocationPort());
+
+        answer = answer("desc.xml");
+        assertEquals("", answer.getLocationHost());
+        assertEquals(-1, answer.getLocationPort());
+    }
+}
@@ -0,0 +1,94 @@
+package com.sweepr.upnpdiscovery;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class SsdpHeadersTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void parses_typed_fields_case_insensitively() {
+        final String response = "HTTP/1.1 200 OK\r\n" +
+                "Cache-Control: max-age = 1800\r\n" +
+                "location:http://192.168.1.254:80/rootDesc.xml\r\n" +
+                "SERVER: Linux/3.4 UPnP/1.1 MiniUPnPd/2.0\r\n" +
+                "ST: upnp:rootdevice\r\n" +
+                "usn: uuid:12345678-0000-0000-0000-000000000000::upnp:rootdevice\r\n" +
+                "BOOTID.UPNP.ORG: 7\r\n" +
+                "ConfigId.UPnP.org: 1337\r\n" +
+                "\r\n";
+
+        final byte[] data = response.getBytes(UTF_8);
+        assertTrue(SsdpHeaders.isOkResponse(data, 0, data.length));
+
+        final SsdpHeaders headers = SsdpHeaders.parse(data, 0, data.length);
+        assertEquals("http://192.168.1.254:80/rootDesc.xml", headers.location);
+        assertEquals("Linux/3.4 UPnP/1.1 MiniUPnPd/2.0", headers.server);
+        assertEquals("upnp:rootdevice", headers.st);
+        assertEquals("uuid:12345678-0000-0000-0000-000000000000::upnp:rootdevice", headers.usn);
+        assertEquals(1800, headers.maxAge);
+        assertEquals(7, headers.bootId);
+        assertEquals(1337, headers.configId);
+    }
+
+    @Test
+    public void tolerates_malformed_and_missing_headers() {
+        final SsdpHeaders headers = SsdpHeaders.parse("HTTP/1.1 200 OK\nno colon here\nST:\nLOCATION: http://host/desc.xml");
+
+        assertEquals("http://host/desc.xml", headers.location);
+        assertEquals("", headers.st);
+        assertEquals("", headers.usn);
+        assertEquals(0, headers.maxAge);
+        assertEquals(-1, headers.bootId);
+    }
+
+    @Test
+    public void finds_location_and_uuid_bounds_without_parsing() {
+        final byte[] data = ("HTTP/1.1 200 OK\r\n" +
+                "Location :  http://192.168.1.254:80/rootDesc.xml \r\n" +
+                "USN: UUID:1234::urn:schemas-upnp-org:device:InternetGatewayDevice:1\r\n" +
+                "\r\n").getBytes(UTF_8);
+        final int[] ranges = new int[4];
+        SsdpHeaders.findKeys(data, 0, data.length, ranges);
+
+        final SsdpHeaders headers = SsdpHeaders.parse(data, 0, data.length);
+        assertEquals(headers.location, new String(data, ranges[SsdpHeaders.LOCATION_START],
+                ranges[SsdpHeaders.LOCATION_END] - ranges[SsdpHeaders.LOCATION_START], UTF_8));
+        assertEquals(UPnPDevice.uuidOf(headers.usn), new String(data, ranges[SsdpHeaders.UUID_START],
+                ranges[SsdpHeaders.UUID_END] - ranges[SsdpHeaders.UUID_START], UTF_8));
+
+        final byte[] noUuid = "HTTP/1.1 200 OK\r\nUSN: upnp:rootdevice\r\n\r\n".getBytes(UTF_8);
+        SsdpHeaders.findKeys(noUuid, 0, noUuid.length, ranges);
+        assertEquals(ranges[SsdpHeaders.LOCATION_START], ranges[SsdpHeaders.LOCATION_END]);
+        assertEquals(ranges[SsdpHeaders.UUID_START], ranges[SsdpHeaders.UUID_END]);
+    }
+
+    @Test
+    public void seen_keys_match_buffer_ranges() {
+        final byte[] data = "xx uuid:1234 yy uuid:5678".getBytes(UTF_8);
+        final SeenKeys keys = new SeenKeys();
+        keys.add(data, 3, 12);
+        assertTrue(keys.contains("uuid:1234".getBytes(UTF_8), 0, 9));
+        assertFalse(keys.contains(data, 16, 25));
+
+        for (int i = 0; i < 1000; i++) {
+            final byte[] key = ("http://host/" + i).getBytes(UTF_8);
+            keys.add(key, 0, key.length);
+        }
+        assertEquals(1001, keys.size());
+        final byte[] probe = "http://host/999".getBytes(UTF_8);
+        assertTrue(keys.contains(probe, 0, probe.length));
+
+        keys.clear();
+        assertFalse(keys.contains(probe, 0, probe.length));
+    }
+
+    @Test
+    public void rejects_non_ok_status() {
+        final byte[] data = "NOTIFY * HTTP/1.1\r\n\r\n".getBytes(UTF_8);
+        assertFalse(SsdpHeaders.isOkResponse(data, 0, data.length));
+    }
+}
@@ -0,0 +1,568 @@
+package com.sweepr.upnpdiscovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class SsdpSearchTest {
+
+    private static final String RESPONSE = "HTTP/1.1 200 OK\r\n" +
+            "CACHE-CONTROL: max-age=1800\r\n" +
+            "LOCATION: http://192.168.1.2:80/desc.xml\r\n" +
+            "ST: upnp:rootdevice\r\n" +
+            "USN: uuid:1234::upnp:rootdevice\r\n" +
+            "\r\n";
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\"?>\n" +
+            "<root><device><friendlyName>NAS</friendlyName><UDN>uuid:1234</UDN></device></root>\n";
+
+    private ScheduledExecutorService mCallbacks;
+    private ExecutorService mWorkers;
+
+    /**
+     * Answers the first send with the same datagram twice, then stays silent. A unicast-only
+     * transport only answers queries sent to a single host.
+     */
+    private static final class FakeTransport implements SsdpTransport {
+        private final boolean mUnicastOnly;
+        final List<String> unicastQueries = new ArrayList<>();
+        private boolean mAnswered;
+        private boolean mSent;
+
+        FakeTransport(boolean unicastOnly) {
+            mUnicastOnly = unicastOnly;
+        }
+
+        @Override
+        public void send() {
+            mSent |= !mUnicastOnly;
+        }
+
+        @Override
+        public void sendTo(@NonNull InetSocketAddress target, @NonNull byte[] datagram) {
+            unicastQueries.add(target + " " + new String(datagram, SsdpHeaders.UTF_8));
+            mSent = true;
+        }
+
+        @Override
+        public int receive(long timeoutMillis, @NonNull Receiver receiver) throws IOException {
+            if (!mSent || mAnswered) {
+                try {
+                    Thread.sleep(Math.min(timeoutMillis, 20));
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return 0;
+            }
+
+            mAnswered = true;
+            final byte[] data = RESPONSE.getBytes(SsdpHeaders.UTF_8);
+            final InetSocketAddress from = new InetSocketAddress(InetAddress.getByName("192.168.1.2"), 1900);
+            receiver.onDatagram(from, "eth0", data, data.length);
+            receiver.onDatagram(from, "eth0", data, data.length);
+            return 2;
+        }
+
+        @Override
+        public void wakeup() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Serves {@link #DOCUMENT}; a gated client holds every request until the gate opens. */
+    private static final class FakeHttpClient implements HttpClient {
+        @Nullable
+        private final CountDownLatch mGate;
+        final CountDownLatch entered = new CountDownLatch(1);
+        int requests;
+        int closed;
+
+        FakeHttpClient() {
+            this(null);
+        }
+
+        FakeHttpClient(@Nullable CountDownLatch gate) {
+            mGate = gate;
+        }
+
+        @NonNull
+        @Override
+        public Response get(@NonNull String url, @NonNull Map<String, String> headers) throws IOException {
+            synchronized (this) {
+                requests++;
+            }
+            entered.countDown();
+            if (mGate != null) {
+                try {
+                    mGate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new Response() {
+                @Override
+                public int getStatus() {
+                    return 200;
+                }
+
+                @Nullable
+                @Override
+                public String getHeader(@NonNull String name) {
+                    return null;
+                }
+
+                @NonNull
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(DOCUMENT.getBytes(SsdpHeaders.UTF_8));
+                }
+
+                @Override
+                public void release() {
+                }
+
+                @Override
+                public void close() {
+                    synchronized (FakeHttpClient.this) {
+                        closed++;
+                    }
+                }
+            };
+        }
+    }
+
+    /** Counts callbacks; only touched on the callback thread. */
+    private static final class CountingListener implements SsdpSearch.Listener {
+        int found;
+        int finished;
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onDeviceFound(@NonNull UPnPDevice device) {
+            found++;
+        }
+
+        @Override
+        public void onFinish(@NonNull Set<UPnPDevice> devices) {
+            finished++;
+        }
+
+        @Override
+        public void onError(@NonNull Exception e) {
+        }
+    }
+
+    /** Holds the first onFetchFinished, which runs inside the fetch handler, until the gate opens. */
+    private static final class BlockingMetrics implements DiscoveryMetrics {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public void onScanStarted() {
+        }
+
+        @Override
+        public void onPacketReceived(int length) {
+        }
+
+        @Override
+        public void onPacketTruncated() {
+        }
+
+        @Override
+        public void onPacketRejected() {
+        }
+
+        @Override
+        public void onPacketDuplicate() {
+        }
+
+        @Override
+        public void onPacketFiltered() {
+        }
+
+        @Override
+        public void onFirstResponse(long millis) {
+        }
+
+        @Override
+        public void onFetchStarted(int inFlight) {
+        }
+
+        @Override
+        public void onFetchFinished(long millis, boolean success) {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onDescriptionParsed(long nanos, long bytes) {
+        }
+
+        @Override
+        public void onScanFinished(long millis, @NonNull DiscoveryHandle.FinishReason reason) {
+        }
+    }
+
+    /** Counts whenDone() outcomes; only touched on the callback thread. */
+    private static final class CountingCallback implements ResultHandler<Set<UPnPDevice>> {
+        int succeeded;
+        int cancelled;
+
+        @Override
+        public void onSuccess(Set<UPnPDevice> data) {
+            succeeded++;
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            if (e instanceof CancellationException) {
+                cancelled++;
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mCallbacks = Executors.newSingleThreadScheduledExecutor();
+        mWorkers = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mCallbacks.shutdownNow();
+        mWorkers.shutdownNow();
+    }
+
+    @NonNull
+    private SsdpSearch newSearch(@NonNull HttpClient http) {
+        return newSearch(http, new FakeTransport(false));
+    }
+
+    @NonNull
+    private SsdpSearch newSearch(@NonNull HttpClient http, @NonNull FakeTransport transport) {
+        return newSearch(new DescriptionLoader(mWorkers, http, 4, 8, 64 * 1024, true), transport);
+    }
+
+    @NonNull
+    private SsdpSearch newSearch(@NonNull DescriptionLoader loader, @NonNull FakeTransport transport) {
+        return newSearch(new ScanPolicy(100, 3000), loader, transport, null);
+    }
+
+    @NonNull
+    private SsdpSearch newSearch(@NonNull ScanPolicy policy, @NonNull HttpClient http,
+                                 @NonNull FakeTransport transport, @Nullable SsdpSearch.Listener listener) {
+        return newSearch(policy, new DescriptionLoader(mWorkers, http, 4, 8, 64 * 1024, true), transport, listener);
+    }
+
+    @NonNull
+    private SsdpSearch newSearch(@NonNull ScanPolicy policy, @NonNull DescriptionLoader loader,
+                                 @NonNull final FakeTransport transport, @Nullable SsdpSearch.Listener listener) {
+        return new SsdpSearch(policy, SearchRequest.DEFAULT,
+                new SsdpTransport.Factory() {
+                    @NonNull
+                    @Override
+                    public SsdpTransport open(@Nullable SearchRequest request, @NonNull InetSocketAddress group,
+                                              @NonNull List<byte[]> queries) {
+                        return transport;
+                    }
+                },
+                loader, new ExecutorScheduler(mCallbacks), listener);
+    }
+
+    /**
+     * Waits for every callback posted so far to run, including those posted by a task that was
+     * still running on the callback thread, such as the hard deadline posting onFinish.
+     */
+    private void flushCallbacks() throws Exception {
+        final Runnable nothing = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        mCallbacks.submit(nothing).get(2, TimeUnit.SECONDS);
+        mCallbacks.submit(nothing).get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void reports_each_device_once() throws Exception {
+        final FakeHttpClient http = new FakeHttpClient();
+        final SsdpSearch search = newSearch(http);
+
+        search.run();
+        final Set<UPnPDevice> devices = search.getHandle().get(2, TimeUnit.SECONDS);
+
+        assertEquals(1, devices.size());
+        final UPnPDevice device = devices.iterator().next();
+        assertEquals("NAS", device.getFriendlyName());
+        assertEquals("eth0", device.getInterfaceName());
+        assertEquals(1, http.requests);
+        assertEquals(DiscoveryHandle.FinishReason.QUIET, search.getHandle().getFinishReason());
+    }
+
+    @Test
+    public void reports_metrics() throws Exception {
+        final InMemoryMetrics metrics = new InMemoryMetrics();
+        final SsdpSearch search = newSearch(new FakeHttpClient());
+        search.setMetrics(metrics);
+
+        search.run();
+        search.getHandle().get(2, TimeUnit.SECONDS);
+
+        final Map<String, Long> values = metrics.snapshot();
+        assertEquals(1L, (long) values.get("scans"));
+        assertEquals(2L, (long) values.get("packets.received"));
+        assertEquals(1L, (long) values.get("packets.duplicate"));
+        assertEquals(0L, (long) values.get("packets.rejected"));
+        assertEquals(1L, (long) values.get("first_response.count"));
+        assertEquals(1L, (long) values.get("fetch.latency.count"));
+        assertEquals(0L, (long) values.get("fetch.failed"));
+        assertEquals(1L, (long) values.get("scan.duration.count"));
+
+        metrics.reset();
+        assertEquals(0L, (long) metrics.snapshot().get("packets.received"));
+    }
+
+    @Test
+    public void never_fetches_filtered_answer() throws Exception {
+        final FakeHttpClient http = new FakeHttpClient();
+        final InMemoryMetrics metrics = new InMemoryMetrics();
+        final SsdpSearch search = newSearch(http);
+        search.setMetrics(metrics);
+        search.setFilter(new SsdpSearch.Filter() {
+            @Override
+            public boolean accept(@NonNull SsdpAnswer answer) {
+                return answer.getST().contains("MediaRenderer");
+            }
+        });
+
+        search.run();
+
+        assertTrue(search.getHandle().get(2, TimeUnit.SECONDS).isEmpty());
+        assertEquals(0, http.requests);
+        assertEquals(2L, (long) metrics.snapshot().get("packets.filtered"));
+    }
+
+    @Test
+    public void headers_only_skips_http() throws Exception {
+        final FakeHttpClient http = new FakeHttpClient();
+        final SsdpSearch search = newSearch(http);
+        search.setHeadersOnly(true);
+
+        search.run();
+        final Set<UPnPDevice> devices = search.getHandle().get(2, TimeUnit.SECONDS);
+
+        assertEquals(1, devices.size());
+        final UPnPDevice device = devices.iterator().next();
+        assertEquals("http://192.168.1.2:80/desc.xml", device.getLocation());
+        assertEquals("uuid:1234", device.getUUID());
+        assertNull(device.getFriendlyName());
+        assertEquals(0, http.requests);
+    }
+
+    @Test
+    public void sends_unicast_queries_to_known_hosts() throws Exception {
+        final FakeTransport transport = new FakeTransport(true);
+        final SsdpSearch search = newSearch(new FakeHttpClient(), transport);
+        final UPnPDevice known = new UPnPDevice("192.168.1.2", RESPONSE);
+        search.setKnownHosts(Collections.singletonList(SsdpSearch.knownHostOf(known)));
+
+        search.run();
+
+        assertEquals(1, search.getHandle().get(2, TimeUnit.SECONDS).size());
+        final String query = transport.unicastQueries.get(0);
+        assertTrue(query, query.startsWith("/192.168.1.2:1900 M-SEARCH * HTTP/1.1\r\nHOST: 192.168.1.2:1900\r\n"));
+        assertTrue(query, query.contains("ST: ssdp:all\r\n"));
+        assertFalse(query, query.contains("MX:"));
+    }
+
+    @Test
+    public void options_apply_to_one_search_only() throws Exception {
+        final FakeHttpClient http = new FakeHttpClient();
+        final DescriptionLoader loader = new DescriptionLoader(mWorkers, http, 4, 8, 64 * 1024, true);
+        final InMemoryMetrics filteredMetrics = new InMemoryMetrics();
+        final InMemoryMetrics plainMetrics = new InMemoryMetrics();
+
+        final SsdpSearch filtered = newSearch(loader, new FakeTransport(false));
+        filtered.setOptions(new DiscoveryOptions.Builder()
+                .setMetrics(filteredMetrics)
+                .setFilter(new SsdpSearch.Filter() {
+                    @Override
+                    public boolean accept(@NonNull SsdpAnswer answer) {
+                        return false;
+                    }
+                })
+                .build());
+        final SsdpSearch plain = newSearch(loader, new FakeTransport(false));
+        plain.setOptions(new DiscoveryOptions.Builder().setMetrics(plainMetrics).build());
+
+        filtered.run();
+        plain.run();
+
+        assertTrue(filtered.getHandle().get(2, TimeUnit.SECONDS).isEmpty());
+        assertEquals(1, plain.getHandle().get(2, TimeUnit.SECONDS).size());
+        assertEquals(1, http.requests);
+        assertEquals(0L, (long) filteredMetrics.snapshot().get("fetch.started"));
+        assertEquals(1L, (long) plainMetrics.snapshot().get("fetch.started"));
+        assertEquals(1L, (long) plainMetrics.snapshot().get("parse.count"));
+    }
+
+    @Test
+    public void finishes_once_when_quiet() throws Exception {
+        final CountingListener listener = new CountingListener();
+        final CountingCallback callback = new CountingCallback();
+        final SsdpSearch search = newSearch(new ScanPolicy(100, 500), new FakeHttpClient(), new FakeTransport(false), listener);
+        search.getHandle().whenDone(callback);
+
+        search.run();
+        assertEquals(1, search.getHandle().get(2, TimeUnit.SECONDS).size());
+        // Let the hard deadline pass too; it must not finish the search a second time.
+        Thread.sleep(600);
+        assertFalse(search.getHandle().cancel(true));
+        flushCallbacks();
+
+        assertEquals(DiscoveryHandle.FinishReason.QUIET, search.getHandle().getFinishReason());
+        assertEquals(1, listener.found);
+        assertEquals(1, listener.finished);
+        assertEquals(1, callback.succeeded);
+    }
+
+    @Test
+    public void finishes_once_at_mx_without_answers() throws Exception {
+        final CountingListener listener = new CountingListener();
+        final CountingCallback callback = new CountingCallback();
+        final SsdpSearch search = newSearch(new ScanPolicy(100, 3000), new FakeHttpClient(), new FakeTransport(true), listener);
+
+        final long start = System.nanoTime();
+        search.run();
+        assertTrue(search.getHandle().get(2, TimeUnit.SECONDS).isEmpty());
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        search.getHandle().whenDone(callback);
+        flushCallbacks();
+
+        assertEquals(DiscoveryHandle.FinishReason.MX_ELAPSED, search.getHandle().getFinishReason());
+        assertTrue("took " + millis + " ms", millis >= SearchRequest.DEFAULT_MX_SECONDS * 1000L && millis < 2000);
+        assertEquals(1, listener.finished);
+        assertEquals(1, callback.succeeded);
+    }
+
+    @Test
+    public void hard_deadline_drops_pending_fetch() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final FakeHttpClient http = new FakeHttpClient(gate);
+        final CountingListener listener = new CountingListener();
+        final SsdpSearch search = newSearch(new ScanPolicy(100, 300), http, new FakeTransport(false), listener);
+
+        search.run();
+        assertTrue(search.getHandle().get(2, TimeUnit.SECONDS).isEmpty());
+        assertEquals(DiscoveryHandle.FinishReason.HARD_DEADLINE, search.getHandle().getFinishReason());
+
+        gate.countDown();
+        mWorkers.shutdown();
+        assertTrue(mWorkers.awaitTermination(2, TimeUnit.SECONDS));
+        flushCallbacks();
+
+        // The fetch is dropped before or during its request; a started one is closed, not read.
+        assertEquals(http.requests, http.closed);
+        assertEquals(0, listener.found);
+        assertEquals(1, listener.finished);
+    }
+
+    @Test
+    public void cancel_stops_search_and_in_flight_fetch() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final FakeHttpClient http = new FakeHttpClient(gate);
+        final CountingListener listener = new CountingListener();
+        final CountingCallback callback = new CountingCallback();
+        final SsdpSearch search = newSearch(new ScanPolicy(100, 3000), http, new FakeTransport(false), listener);
+        final DiscoveryHandle handle = search.getHandle();
+        handle.whenDone(callback);
+
+        final Thread socket = new Thread(search);
+        socket.start();
+        assertTrue(http.entered.await(2, TimeUnit.SECONDS));
+        try {
+            handle.get(50, TimeUnit.MILLISECONDS);
+            fail("still fetching");
+        } catch (TimeoutException expected) {
+        }
+
+        assertTrue(handle.cancel(true));
+        assertFalse(handle.cancel(true));
+        socket.join(2000);
+        assertFalse(socket.isAlive());
+        assertTrue(handle.isCancelled());
+        assertEquals(DiscoveryHandle.FinishReason.CANCELLED, handle.getFinishReason());
+        try {
+            handle.get();
+            fail("cancelled");
+        } catch (CancellationException expected) {
+        }
+
+        gate.countDown();
+        mWorkers.shutdown();
+        assertTrue(mWorkers.awaitTermination(2, TimeUnit.SECONDS));
+        flushCallbacks();
+
+        assertEquals(1, http.closed);
+        assertEquals(0, listener.found);
+        assertEquals(0, listener.finished);
+        assertEquals(1, callback.cancelled);
+        assertEquals(0, callback.succeeded);
+    }
+
+    @Test
+    public void result_arriving_after_hard_deadline_is_dropped() throws Exception {
+        final BlockingMetrics metrics = new BlockingMetrics();
+        final CountingListener listener = new CountingListener();
+        final SsdpSearch search = newSearch(new ScanPolicy(100, 300), new FakeHttpClient(), new FakeTransport(false), listener);
+        search.setMetrics(metrics);
+
+        search.run();
+        // The fetch succeeded and its handler is running, but the hard deadline finishes first.
+        assertTrue(metrics.entered.await(2, TimeUnit.SECONDS));
+        assertTrue(search.getHandle().get(2, TimeUnit.SECONDS).isEmpty());
+        assertEquals(DiscoveryHandle.FinishReason.HARD_DEADLINE, search.getHandle().getFinishReason());
+
+        metrics.gate.countDown();
+        mWorkers.shutdown();
+        assertTrue(mWorkers.awaitTermination(2, TimeUnit.SECONDS));
+        flushCallbacks();
+
+        assertEquals(0, listener.found);
+        assertEquals(1, listener.finished);
+    }
+}
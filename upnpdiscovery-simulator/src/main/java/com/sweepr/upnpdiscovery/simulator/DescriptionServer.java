@@ -0,0 +1,139 @@
+package com.sweepr.upnpdiscovery.simulator;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bare-bones HTTP/1.1 server handing out the description of each virtual device at
+ * {@code /device/<index>.xml}. One connection per request, like most real devices.
+ */
+final class DescriptionServer {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    interface Documents {
+        /**
+         * @return the document of device {@code index}, {@code null} when there is no such device
+         */
+        @Nullable
+        byte[] get(int index);
+    }
+
+    @NonNull
+    private final ServerSocket mSocket;
+    @NonNull
+    private final ExecutorService mWorkers;
+    @NonNull
+    private final Documents mDocuments;
+    private final long mLatencyMillis;
+    final AtomicInteger requests = new AtomicInteger();
+
+    DescriptionServer(@NonNull InetAddress address, @NonNull ExecutorService workers, @NonNull Documents documents,
+                      long latencyMillis) throws IOException {
+        mSocket = new ServerSocket();
+        mSocket.setReuseAddress(true);
+        mSocket.bind(new InetSocketAddress(address, 0), 512);
+        mWorkers = workers;
+        mDocuments = documents;
+        mLatencyMillis = latencyMillis;
+    }
+
+    int getPort() {
+        return mSocket.getLocalPort();
+    }
+
+    void start() {
+        mWorkers.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!mSocket.isClosed()) {
+                    final Socket client;
+                    try {
+                        client = mSocket.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    mWorkers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(client);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    void close() {
+        try {
+            mSocket.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void serve(@NonNull Socket client) {
+        try {
+            client.setSoTimeout(5000);
+            final BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), ASCII));
+            final String requestLine = in.readLine();
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                // Request headers are not needed.
+            }
+            requests.incrementAndGet();
+
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            final byte[] document = requestLine != null ? mDocuments.get(indexOf(requestLine)) : null;
+            final OutputStream out = client.getOutputStream();
+            if (document == null) {
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(ASCII));
+            } else {
+                out.write(("HTTP/1.1 200 OK\r\n" +
+                        "Content-Type: text/xml; charset=\"utf-8\"\r\n" +
+                        "Content-Length: " + document.length + "\r\n" +
+                        "Connection: close\r\n" +
+                        "\r\n").getBytes(ASCII));
+                out.write(document);
+            }
+            out.flush();
+        } catch (IOException | InterruptedException ignore) {
+            // The client gave up, for instance a cancelled fetch, or the simulator is closing.
+        } finally {
+            try {
+                client.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * @return the device index of {@code GET /device/<index>.xml HTTP/1.1}, -1 otherwise
+     */
+    private static int indexOf(@NonNull String requestLine) {
+        final int start = requestLine.indexOf("/device/");
+        final int end = requestLine.indexOf(".xml", start + 1);
+        if (!requestLine.startsWith("GET ") || start < 0 || end < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(requestLine.substring(start + 8, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
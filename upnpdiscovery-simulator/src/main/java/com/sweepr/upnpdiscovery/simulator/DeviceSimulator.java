@@ -0,0 +1,423 @@
+package com.sweepr.upnpdiscovery.simulator;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Emulates a LAN full of UPnP root devices on the local machine, for load and latency tests
+ * that need no network.
+ * <p>
+ * Every virtual device answers M-SEARCH on one shared SSDP socket, after a configurable delay
+ * with jitter, and may lose answers on purpose. Descriptions are served by a local HTTP server
+ * with configurable latency and size. Point a custom-query discovery at {@link #getAddress()} and
+ * {@link #getPort()}, with {@link #searchQuery} as the query:
+ * <pre>
+ * DeviceSimulator simulator = DeviceSimulator.start(new DeviceSimulator.Config().setDeviceCount(500));
+ * UPnPDiscovery.discoveryDevices(context, executor, 5000, null, listener,
+ *         simulator.searchQuery("ssdp:all", 1), simulator.getAddress(), simulator.getPort());
+ * </pre>
+ */
+public final class DeviceSimulator implements Closeable {
+
+    public static final int MAX_DEVICES = 5000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String LINE_END = "\r\n";
+    private static final String DEVICE_TYPE = "urn:schemas-upnp-org:device:MediaRenderer:1";
+    private static final String ROOT_DEVICE = "upnp:rootdevice";
+
+    /**
+     * Settings of a simulated network. Defaults: one device on an ephemeral loopback port,
+     * answering at once, with 2 KB descriptions served without delay.
+     */
+    public static final class Config {
+        int deviceCount = 1;
+        @NonNull
+        String address = "127.0.0.1";
+        int port;
+        long responseDelayMillis;
+        long jitterMillis;
+        double lossRate;
+        long httpLatencyMillis;
+        int documentBytes = 2048;
+        long seed = 42;
+
+        /**
+         * @param deviceCount 1 to {@link #MAX_DEVICES}
+         */
+        @NonNull
+        public Config setDeviceCount(int deviceCount) {
+            if (deviceCount < 1 || deviceCount > MAX_DEVICES) {
+                throw new IllegalArgumentException("deviceCount must be between 1 and " + MAX_DEVICES);
+            }
+            this.deviceCount = deviceCount;
+            return this;
+        }
+
+        /**
+         * @param address unicast address to answer on, or a multicast group to join
+         * @param port    0 for an ephemeral port, unicast only
+         */
+        @NonNull
+        public Config setAddress(@NonNull String address, int port) {
+            this.address = address;
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param delayMillis  fixed delay before each answer
+         * @param jitterMillis extra delay drawn uniformly from 0 to {@code jitterMillis}, per answer
+         */
+        @NonNull
+        public Config setResponseDelay(long delayMillis, long jitterMillis) {
+            if (delayMillis < 0 || jitterMillis < 0) {
+                throw new IllegalArgumentException("delayMillis and jitterMillis must be >= 0");
+            }
+            this.responseDelayMillis = delayMillis;
+            this.jitterMillis = jitterMillis;
+            return this;
+        }
+
+        /**
+         * @param lossRate probability, from 0 to 1, that an answer is dropped
+         */
+        @NonNull
+        public Config setLossRate(double lossRate) {
+            if (lossRate < 0 || lossRate > 1) {
+                throw new IllegalArgumentException("lossRate must be between 0 and 1");
+            }
+            this.lossRate = lossRate;
+            return this;
+        }
+
+        /**
+         * @param latencyMillis delay before each description response
+         * @param documentBytes approximate size of each description document
+         */
+        @NonNull
+        public Config setDescription(long latencyMillis, int documentBytes) {
+            if (latencyMillis < 0 || documentBytes <= 0) {
+                throw new IllegalArgumentException("latencyMillis must be >= 0 and documentBytes > 0");
+            }
+            this.httpLatencyMillis = latencyMillis;
+            this.documentBytes = documentBytes;
+            return this;
+        }
+
+        /**
+         * @param seed seeds jitter and loss, so runs are repeatable
+         */
+        @NonNull
+        public Config setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    @NonNull
+    private final Config mConfig;
+    @NonNull
+    private final DatagramSocket mSocket;
+    @NonNull
+    private final InetAddress mHttpAddress;
+    @NonNull
+    private final DescriptionServer mServer;
+    @NonNull
+    private final ScheduledExecutorService mAnswers;
+    @NonNull
+    private final ExecutorService mWorkers;
+    // Only touched by the SSDP thread
+    @NonNull
+    private final Random mRandom;
+    private final byte[][] mDocuments;
+    private final AtomicInteger mSearches = new AtomicInteger();
+    private final AtomicInteger mAnswersSent = new AtomicInteger();
+
+    private DeviceSimulator(@NonNull Config config) throws IOException {
+        mConfig = config;
+        mRandom = new Random(config.seed);
+        mDocuments = new byte[config.deviceCount][];
+
+        final InetAddress address = InetAddress.getByName(config.address);
+        if (address.isMulticastAddress()) {
+            final MulticastSocket socket = new MulticastSocket(config.port);
+            socket.joinGroup(address);
+            mSocket = socket;
+            mHttpAddress = InetAddress.getLoopbackAddress();
+        } else {
+            mSocket = new DatagramSocket(new InetSocketAddress(address, config.port));
+            mHttpAddress = address;
+        }
+
+        final ThreadFactory daemons = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                final Thread thread = new Thread(r, "DeviceSimulator-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        mAnswers = Executors.newScheduledThreadPool(2, daemons);
+        mWorkers = Executors.newCachedThreadPool(daemons);
+        try {
+            mServer = new DescriptionServer(mHttpAddress, mWorkers, new DescriptionServer.Documents() {
+                @Nullable
+                @Override
+                public byte[] get(int index) {
+                    return document(index);
+                }
+            }, config.httpLatencyMillis);
+        } catch (IOException e) {
+            mSocket.close();
+            mAnswers.shutdownNow();
+            mWorkers.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the SSDP socket and the description server and starts answering.
+     */
+    @NonNull
+    public static DeviceSimulator start(@NonNull Config config) throws IOException {
+        final DeviceSimulator simulator = new DeviceSimulator(config);
+        simulator.mServer.start();
+        simulator.mWorkers.execute(new Runnable() {
+            @Override
+            public void run() {
+                simulator.listen();
+            }
+        });
+        return simulator;
+    }
+
+    /**
+     * @return address the simulator answers M-SEARCH on
+     */
+    @NonNull
+    public String getAddress() {
+        return mConfig.address;
+    }
+
+    /**
+     * @return port the simulator answers M-SEARCH on, resolved when the config asked for an
+     * ephemeral one
+     */
+    public int getPort() {
+        return mSocket.getLocalPort();
+    }
+
+    public int getDeviceCount() {
+        return mConfig.deviceCount;
+    }
+
+    /**
+     * @return M-SEARCH requests received so far
+     */
+    public int getSearchCount() {
+        return mSearches.get();
+    }
+
+    /**
+     * @return answers sent so far, not counting the ones dropped on purpose
+     */
+    public int getAnswerCount() {
+        return mAnswersSent.get();
+    }
+
+    /**
+     * @return description requests served so far
+     */
+    public int getDescriptionRequestCount() {
+        return mServer.requests.get();
+    }
+
+    /**
+     * @return an M-SEARCH for {@code st} addressed to this simulator
+     */
+    @NonNull
+    public String searchQuery(@NonNull String st, int mx) {
+        return "M-SEARCH * HTTP/1.1" + LINE_END +
+                "HOST: " + mConfig.address + ":" + getPort() + LINE_END +
+                "MAN: \"ssdp:discover\"" + LINE_END +
+                "MX: " + mx + LINE_END +
+                "ST: " + st + LINE_END +
+                LINE_END;
+    }
+
+    /**
+     * @return the UDN of virtual device {@code index}
+     */
+    @NonNull
+    public static String udnOf(int index) {
+        return String.format("uuid:5ec0f000-0000-4000-8000-%012x", index);
+    }
+
+    @Override
+    public void close() {
+        mSocket.close();
+        mServer.close();
+        mAnswers.shutdownNow();
+        mWorkers.shutdownNow();
+    }
+
+    private void listen() {
+        final byte[] buffer = new byte[8192];
+        final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!mSocket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                mSocket.receive(packet);
+            } catch (IOException e) {
+                return;
+            }
+
+            final String message = new String(packet.getData(), 0, packet.getLength(), UTF_8);
+            if (message.startsWith("M-SEARCH")) {
+                mSearches.incrementAndGet();
+                answer(header(message, "ST"), packet.getSocketAddress());
+            }
+        }
+    }
+
+    /**
+     * Schedules the answers of every device matching {@code st}: three per device for
+     * ssdp:all, as real root devices send, one otherwise.
+     */
+    private void answer(@Nullable String st, @NonNull SocketAddress to) {
+        if (st == null) {
+            return;
+        }
+
+        for (int index = 0; index < mConfig.deviceCount; index++) {
+            final String udn = udnOf(index);
+            if (st.equals("ssdp:all")) {
+                schedule(index, ROOT_DEVICE, udn + "::" + ROOT_DEVICE, to);
+                schedule(index, udn, udn, to);
+                schedule(index, DEVICE_TYPE, udn + "::" + DEVICE_TYPE, to);
+            } else if (st.equals(ROOT_DEVICE) || st.equals(DEVICE_TYPE)) {
+                schedule(index, st, udn + "::" + st, to);
+            } else if (st.equals(udn)) {
+                schedule(index, udn, udn, to);
+            }
+        }
+    }
+
+    private void schedule(int index, @NonNull String st, @NonNull String usn, @NonNull SocketAddress to) {
+        if (mConfig.lossRate > 0 && mRandom.nextDouble() < mConfig.lossRate) {
+            return;
+        }
+
+        final long delay = mConfig.responseDelayMillis
+                + (mConfig.jitterMillis > 0 ? (long) (mRandom.nextDouble() * mConfig.jitterMillis) : 0);
+        final byte[] response = ("HTTP/1.1 200 OK" + LINE_END +
+                "CACHE-CONTROL: max-age=1800" + LINE_END +
+                "EXT:" + LINE_END +
+                "LOCATION: http://" + hostOf(mHttpAddress) + ":" + mServer.getPort() + "/device/" + index + ".xml" + LINE_END +
+                "SERVER: Linux/5.10 UPnP/1.1 DeviceSimulator/1.0" + LINE_END +
+                "ST: " + st + LINE_END +
+                "USN: " + usn + LINE_END +
+                "BOOTID.UPNP.ORG: 1" + LINE_END +
+                "CONFIGID.UPNP.ORG: 1" + LINE_END +
+                LINE_END).getBytes(UTF_8);
+        final DatagramPacket packet = new DatagramPacket(response, response.length, to);
+        mAnswers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mSocket.send(packet);
+                    mAnswersSent.incrementAndGet();
+                } catch (IOException ignore) {
+                    // Closed while answers were pending.
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Nullable
+    private byte[] document(int index) {
+        if (index < 0 || index >= mDocuments.length) {
+            return null;
+        }
+
+        synchronized (mDocuments) {
+            if (mDocuments[index] == null) {
+                mDocuments[index] = buildDocument(index, mConfig.documentBytes);
+            }
+            return mDocuments[index];
+        }
+    }
+
+    /**
+     * A MediaRenderer description padded with services up to about {@code size} bytes.
+     */
+    @NonNull
+    static byte[] buildDocument(int index, int size) {
+        final StringBuilder xml = new StringBuilder(size + 512);
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+                .append("<root xmlns=\"urn:schemas-upnp-org:device-1-0\">\n")
+                .append("<specVersion><major>1</major><minor>1</minor></specVersion>\n")
+                .append("<device>\n")
+                .append("<deviceType>").append(DEVICE_TYPE).append("</deviceType>\n")
+                .append("<friendlyName>Simulated device ").append(index).append("</friendlyName>\n")
+                .append("<manufacturer>Sweepr</manufacturer>\n")
+                .append("<modelName>DeviceSimulator</modelName>\n")
+                .append("<modelNumber>1.0</modelNumber>\n")
+                .append("<serialNumber>SIM").append(index).append("</serialNumber>\n")
+                .append("<UDN>").append(udnOf(index)).append("</UDN>\n")
+                .append("<serviceList>\n");
+        int service = 0;
+        do {
+            xml.append("<service><serviceType>urn:schemas-upnp-org:service:RenderingControl:1</serviceType>")
+                    .append("<serviceId>urn:upnp-org:serviceId:RenderingControl").append(service).append("</serviceId>")
+                    .append("<SCPDURL>/rc").append(service).append(".xml</SCPDURL>")
+                    .append("<controlURL>/rc").append(service).append("/control</controlURL>")
+                    .append("<eventSubURL>/rc").append(service).append("/event</eventSubURL></service>\n");
+            service++;
+        } while (xml.length() < size - 64);
+        xml.append("</serviceList>\n")
+                .append("</device>\n")
+                .append("</root>\n");
+        return xml.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * @return the value of header {@code name} in {@code message}, {@code null} when absent
+     */
+    @Nullable
+    static String header(@NonNull String message, @NonNull String name) {
+        for (String line : message.split(LINE_END)) {
+            final int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private static String hostOf(@NonNull InetAddress address) {
+        final String host = address.getHostAddress();
+        return host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+    }
+}
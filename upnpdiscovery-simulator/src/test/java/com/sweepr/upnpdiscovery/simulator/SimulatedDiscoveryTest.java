@@ -0,0 +1,187 @@
+package com.sweepr.upnpdiscovery.simulator;
+
+import androidx.annotation.NonNull;
+
+import com.sweepr.upnpdiscovery.DescriptionLoader;
+import com.sweepr.upnpdiscovery.DiscoveryHandle;
+import com.sweepr.upnpdiscovery.ExecutorScheduler;
+import com.sweepr.upnpdiscovery.ScanPolicy;
+import com.sweepr.upnpdiscovery.SelectorTransport;
+import com.sweepr.upnpdiscovery.SsdpSearch;
+import com.sweepr.upnpdiscovery.UPnPDevice;
+import com.sweepr.upnpdiscovery.UrlConnectionHttpClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Offline scans against {@link DeviceSimulator}, through the same custom query path as
+ * {@code UPnPDiscovery.discoveryDevices(..., customQuery, address, port)}.
+ */
+public class SimulatedDiscoveryTest {
+
+    private ScheduledExecutorService mCallbacks;
+    private ExecutorService mWorkers;
+    private DeviceSimulator mSimulator;
+
+    /** Time from the start of the scan to each onDeviceFound, in milliseconds. */
+    private final List<Long> mLatencies = Collections.synchronizedList(new ArrayList<Long>());
+
+    @Before
+    public void setUp() {
+        mCallbacks = Executors.newSingleThreadScheduledExecutor();
+        mWorkers = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        if (mSimulator != null) {
+            mSimulator.close();
+        }
+        mCallbacks.shutdownNow();
+        mWorkers.shutdownNow();
+    }
+
+    @NonNull
+    private SsdpSearch newSearch(@NonNull ScanPolicy policy, int mx, @NonNull SsdpSearch.Listener listener) {
+        return new SsdpSearch(policy, mSimulator.searchQuery("ssdp:all", mx),
+                mSimulator.getAddress(), mSimulator.getPort(), SelectorTransport.factory(true),
+                new DescriptionLoader(mWorkers, new UrlConnectionHttpClient(), 16, 8192, 64 * 1024, false),
+                new ExecutorScheduler(mCallbacks), listener);
+    }
+
+    @NonNull
+    private DiscoveryHandle scan(@NonNull ScanPolicy policy, int mx) {
+        final long start = System.nanoTime();
+        final SsdpSearch search = newSearch(policy, mx, new SsdpSearch.Listener() {
+            @Override
+            public void onStart() {
+            }
+
+            @Override
+            public void onDeviceFound(@NonNull UPnPDevice device) {
+                mLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+
+            @Override
+            public void onFinish(@NonNull Set<UPnPDevice> devices) {
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+            }
+        });
+        search.run();
+        return search.getHandle();
+    }
+
+    private long percentile(int percent) {
+        final List<Long> sorted = new ArrayList<>(mLatencies);
+        Collections.sort(sorted);
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percent / 100));
+    }
+
+    @Test
+    public void finds_every_device_once() throws Exception {
+        mSimulator = DeviceSimulator.start(new DeviceSimulator.Config().setDeviceCount(20));
+
+        final Set<UPnPDevice> devices = scan(new ScanPolicy(300, 5000), 1).get(10, TimeUnit.SECONDS);
+
+        assertEquals(20, devices.size());
+        // ssdp:all draws three answers per device, but each description is fetched once
+        assertEquals(60, mSimulator.getAnswerCount());
+        assertEquals(20, mSimulator.getDescriptionRequestCount());
+        for (UPnPDevice device : devices) {
+            assertTrue(device.getFriendlyName().startsWith("Simulated device "));
+        }
+    }
+
+    @Test
+    public void finishes_empty_at_mx_when_answers_are_lost() throws Exception {
+        mSimulator = DeviceSimulator.start(new DeviceSimulator.Config().setDeviceCount(5).setLossRate(1));
+
+        final DiscoveryHandle handle = scan(new ScanPolicy(300, 5000), 1);
+
+        assertTrue(handle.get(10, TimeUnit.SECONDS).isEmpty());
+        assertEquals(DiscoveryHandle.FinishReason.MX_ELAPSED, handle.getFinishReason());
+        assertEquals(1, mSimulator.getSearchCount());
+    }
+
+    @Test
+    public void batched_delivery_coalesces_devices() throws Exception {
+        mSimulator = DeviceSimulator.start(new DeviceSimulator.Config()
+                .setDeviceCount(100)
+                .setResponseDelay(10, 400));
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+        final int[] delivered = new int[1];
+        final boolean[] finishedLast = new boolean[1];
+
+        final SsdpSearch search = newSearch(new ScanPolicy(300, 10000), 1, new SsdpSearch.BatchListener() {
+            @Override
+            public void onDevicesFound(@NonNull List<UPnPDevice> devices) {
+                batches.add(devices.size());
+                delivered[0] += devices.size();
+            }
+
+            @Override
+            public void onStart() {
+            }
+
+            @Override
+            public void onDeviceFound(@NonNull UPnPDevice device) {
+                fail("batched searches deliver lists");
+            }
+
+            @Override
+            public void onFinish(@NonNull Set<UPnPDevice> devices) {
+                finishedLast[0] = delivered[0] == devices.size();
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+            }
+        });
+        search.setDeliveryInterval(100);
+        search.run();
+        final Set<UPnPDevice> devices = search.getHandle().get(15, TimeUnit.SECONDS);
+        // onFinish is posted to the callback thread after the handle completes.
+        mCallbacks.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        assertTrue("found " + devices.size(), devices.size() >= 95);
+        assertTrue("batches " + batches, batches.size() < devices.size() / 4);
+        assertTrue(finishedLast[0]);
+    }
+
+    @Test
+    public void finds_thousand_devices_within_latency_bounds() throws Exception {
+        mSimulator = DeviceSimulator.start(new DeviceSimulator.Config()
+                .setDeviceCount(1000)
+                .setResponseDelay(10, 1000)
+                .setDescription(5, 4096));
+
+        final Set<UPnPDevice> devices = scan(new ScanPolicy(500, 20000), 3).get(30, TimeUnit.SECONDS);
+
+        // Loopback still drops datagrams when the receive buffer fills up during the burst.
+        assertTrue("found " + devices.size(), devices.size() >= 950);
+        // About 1.8 s and 3.3 s on a laptop; the bounds leave room for slow CI machines while
+        // still catching a scan that only reports at the hard deadline.
+        assertTrue("p50 " + percentile(50) + " ms", percentile(50) < 5000);
+        assertTrue("p99 " + percentile(99) + " ms", percentile(99) < 10000);
+    }
+}
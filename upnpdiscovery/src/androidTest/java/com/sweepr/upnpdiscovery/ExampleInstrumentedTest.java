@@ -12,6 +12,10 @@ import androidx.annotation.NonNull;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import com.sweepr.upnpdiscovery.simulator.DeviceSimulator;
+
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -61,6 +65,38 @@ public class ExampleInstrumentedTest {
         });
     }
 
+    @Test
+    public void run_discovery_against_simulator() throws Exception {
+        final Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Set<UPnPDevice> found = Collections.synchronizedSet(new HashSet<UPnPDevice>());
+
+        try (DeviceSimulator simulator = DeviceSimulator.start(new DeviceSimulator.Config().setDeviceCount(50))) {
+            UPnPDiscovery.discoveryDevices(appContext, executor, 5000, null, new UPnPDiscovery.OnDiscoveryListener() {
+                @Override
+                public void onDiscoveryStart() {
+                }
+
+                @Override
+                public void onDiscoveryFoundNewDevice(@NonNull UPnPDevice device) {
+                }
+
+                @Override
+                public void onDiscoveryFinish(@NonNull Set<UPnPDevice> devices) {
+                    found.addAll(devices);
+                }
+
+                @Override
+                public void onDiscoveryError(@NonNull Exception e) {
+                    Log.e(TAG, "Error: " + e.getLocalizedMessage());
+                }
+            }, simulator.searchQuery("ssdp:all", 1), simulator.getAddress(), simulator.getPort());
+            InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        }
+
+        assertEquals(50, found.size());
+    }
+
     @Test
     public void parse_ssdt_device_info_with_success() {
         final String decl = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
@@ -0,0 +1,177 @@
+package com.sweepr.upnpdiscovery;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide {@link DescriptionLoader} shared by every {@link UPnPDiscovery} and
+ * {@link UPnPDiscovery#getDataFrom} caller, running on a fixed pool of workers unless the app
+ * supplies its own executor.
+ */
+public final class DescriptionFetcher {
+
+    public static final int DEFAULT_WORKER_COUNT = 4;
+    public static final int DEFAULT_MAX_IN_FLIGHT = DescriptionLoader.DEFAULT_MAX_IN_FLIGHT;
+    public static final int DEFAULT_MAX_PER_HOST = DescriptionLoader.DEFAULT_MAX_PER_HOST;
+    public static final int DEFAULT_CACHE_SIZE = DescriptionLoader.DEFAULT_CACHE_SIZE;
+    public static final int DEFAULT_MAX_DOCUMENT_BYTES = DescriptionLoader.DEFAULT_MAX_DOCUMENT_BYTES;
+
+    private static final Object sLock = new Object();
+    private static int sWorkerCount = DEFAULT_WORKER_COUNT;
+    private static int sMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private static int sMaxPerHost = DEFAULT_MAX_PER_HOST;
+    private static int sCacheSize = DEFAULT_CACHE_SIZE;
+    private static int sMaxDocumentBytes = DEFAULT_MAX_DOCUMENT_BYTES;
+    private static boolean sRetainDocuments = true;
+    @Nullable
+    private static Executor sExecutor;
+    private static DescriptionFetcher sInstance;
+
+    @NonNull
+    private final DescriptionLoader mLoader;
+    // Pool created by the engine itself, shut down with it; null when the app supplied the executor
+    @Nullable
+    private final ExecutorService mOwnedExecutor;
+
+    private DescriptionFetcher(@Nullable Executor executor, int workerCount, int maxInFlight, int maxPerHost,
+                               int cacheSize, int maxDocumentBytes, boolean retainDocuments) {
+        if (executor != null) {
+            mOwnedExecutor = null;
+        } else {
+            mOwnedExecutor = Executors.newFixedThreadPool(workerCount);
+            executor = mOwnedExecutor;
+        }
+        mLoader = new DescriptionLoader(executor, new UrlConnectionHttpClient(), maxInFlight, maxPerHost,
+                cacheSize, maxDocumentBytes, retainDocuments);
+    }
+
+    public static void configure(int workerCount, int maxInFlight) {
+        configure(workerCount, maxInFlight, DEFAULT_CACHE_SIZE);
+    }
+
+    public static void configure(int workerCount, int maxInFlight, int cacheSize) {
+        configure(workerCount, maxInFlight, cacheSize, DEFAULT_MAX_DOCUMENT_BYTES, true);
+    }
+
+    /**
+     * Sets the worker count, in-flight cap, description cache size and document limits used by
+     * the shared engine. Must be called before the engine is first used, or after
+     * {@link #shutdown()}.
+     *
+     * @param maxDocumentBytes size above which a description is rejected
+     * @param retainDocuments  keep every description document for
+     *                         {@link UPnPDevice#getDescriptionXML()}; when {@code false} only the
+     *                         root device fields are read and the download stops right after them
+     */
+    public static void configure(int workerCount, int maxInFlight, int cacheSize, int maxDocumentBytes, boolean retainDocuments) {
+        configure(null, workerCount, maxInFlight, cacheSize, maxDocumentBytes, retainDocuments);
+    }
+
+    /**
+     * Like {@link #configure(int, int, int, int, boolean)}, but downloads and parses descriptions on
+     * {@code executor} instead of a pool owned by the engine, for instance a virtual-thread
+     * executor on the JVM. {@link #shutdown()} leaves {@code executor} running.
+     */
+    public static void configure(@NonNull Executor executor, int maxInFlight, int cacheSize, int maxDocumentBytes, boolean retainDocuments) {
+        configure(executor, DEFAULT_WORKER_COUNT, maxInFlight, cacheSize, maxDocumentBytes, retainDocuments);
+    }
+
+    private static void configure(@Nullable Executor executor, int workerCount, int maxInFlight, int cacheSize,
+                                  int maxDocumentBytes, boolean retainDocuments) {
+        if (workerCount <= 0 || maxInFlight <= 0 || cacheSize <= 0 || maxDocumentBytes <= 0) {
+            throw new IllegalArgumentException("workerCount, maxInFlight, cacheSize and maxDocumentBytes must be positive");
+        }
+
+        synchronized (sLock) {
+            if (sInstance != null) {
+                throw new IllegalStateException("DescriptionFetcher already started, call shutdown() first");
+            }
+            sExecutor = executor;
+            sWorkerCount = workerCount;
+            sMaxInFlight = maxInFlight;
+            sCacheSize = cacheSize;
+            sMaxDocumentBytes = maxDocumentBytes;
+            sRetainDocuments = retainDocuments;
+        }
+    }
+
+    /**
+     * Sets how many descriptions are downloaded at once from a single host:port, so that a device
+     * serving several embedded descriptions is not hit by every worker at the same time. Must be
+     * called before the engine is first used, or after {@link #shutdown()}.
+     */
+    public static void setMaxInFlightPerHost(int maxPerHost) {
+        if (maxPerHost <= 0) {
+            throw new IllegalArgumentException("maxPerHost must be positive");
+        }
+
+        synchronized (sLock) {
+            if (sInstance != null) {
+                throw new IllegalStateException("DescriptionFetcher already started, call shutdown() first");
+            }
+            sMaxPerHost = maxPerHost;
+        }
+    }
+
+    @NonNull
+    public static DescriptionFetcher getInstance(@NonNull Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new DescriptionFetcher(sExecutor, sWorkerCount, sMaxInFlight, sMaxPerHost, sCacheSize, sMaxDocumentBytes, sRetainDocuments);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Cancels every pending and in-flight fetch and stops the workers the engine created. The next call to
+     * {@link #getInstance(Context)} starts a fresh engine.
+     */
+    public static void shutdown() {
+        final DescriptionFetcher fetcher;
+        synchronized (sLock) {
+            fetcher = sInstance;
+            sInstance = null;
+        }
+
+        if (fetcher != null) {
+            fetcher.mLoader.shutdown();
+            if (fetcher.mOwnedExecutor != null) {
+                fetcher.mOwnedExecutor.shutdownNow();
+            }
+        }
+    }
+
+    @NonNull
+    DescriptionLoader getLoader() {
+        return mLoader;
+    }
+
+    /**
+     * See {@link DescriptionLoader#fetch}.
+     */
+    void fetch(@NonNull String url, int maxAgeSeconds, @NonNull Object tag,
+               @NonNull ResultHandler<DeviceDescription> handler) {
+        mLoader.fetch(url, maxAgeSeconds, tag, handler);
+    }
+
+    /**
+     * See {@link DescriptionLoader#clearCache()}.
+     */
+    public void clearCache() {
+        mLoader.clearCache();
+    }
+
+    /**
+     * See {@link DescriptionLoader#cancel(Object)}.
+     */
+    public void cancel(@NonNull Object tag) {
+        mLoader.cancel(tag);
+    }
+}
@@ -0,0 +1,39 @@
+package com.sweepr.upnpdiscovery;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link Scheduler} backed by a {@link Handler}, timed with {@link SystemClock#elapsedRealtime()}.
+ */
+final class HandlerScheduler implements Scheduler {
+
+    @NonNull
+    private final Handler mHandler;
+
+    HandlerScheduler(@NonNull Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void post(@NonNull Runnable task) {
+        mHandler.post(task);
+    }
+
+    @Override
+    public void postDelayed(@NonNull Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void cancel(@NonNull Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+}
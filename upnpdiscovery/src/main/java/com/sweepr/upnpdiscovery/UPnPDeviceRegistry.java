@@ -0,0 +1,93 @@
+package com.sweepr.upnpdiscovery;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Set;
+
+/**
+ * {@link DeviceRegistry} whose expiry timer and events run on an Android {@link Handler}, the
+ * main thread unless the caller passes its own, with listeners that feed it from active and
+ * passive discoveries.
+ */
+public class UPnPDeviceRegistry extends DeviceRegistry {
+
+    /**
+     * Registry events, delivered on the registry's {@link Handler}.
+     */
+    public interface OnRegistryChangeListener extends DeviceRegistry.Listener {
+    }
+
+    public UPnPDeviceRegistry() {
+        this(null);
+    }
+
+    /**
+     * @param handler thread that runs the expiry timer and receives events, main thread when
+     *                {@code null}
+     */
+    public UPnPDeviceRegistry(@Nullable Handler handler) {
+        super(new HandlerScheduler(handler != null ? handler : new Handler(Looper.getMainLooper())));
+    }
+
+    /**
+     * @return a discovery listener that feeds every described device into this registry.
+     */
+    @NonNull
+    public UPnPDiscovery.OnDiscoveryListener discoveryListener() {
+        return new UPnPDiscovery.OnDiscoveryListener() {
+            @Override
+            public void onDiscoveryStart() {
+            }
+
+            @Override
+            public void onDiscoveryFoundNewDevice(@NonNull UPnPDevice device) {
+                put(device);
+            }
+
+            @Override
+            public void onDiscoveryFinish(@NonNull Set<UPnPDevice> devices) {
+            }
+
+            @Override
+            public void onDiscoveryError(@NonNull Exception e) {
+            }
+        };
+    }
+
+    /**
+     * @return a passive discovery listener that adds, updates and removes devices as they
+     * announce themselves.
+     */
+    @NonNull
+    public UPnPPassiveDiscovery.OnPassiveDiscoveryListener passiveListener() {
+        return new UPnPPassiveDiscovery.OnPassiveDiscoveryListener() {
+            @Override
+            public void onDeviceAlive(@NonNull UPnPDevice device) {
+                put(device);
+            }
+
+            @Override
+            public void onDeviceUpdated(@NonNull UPnPDevice device) {
+                put(device);
+            }
+
+            @Override
+            public void onDeviceRefreshed(@NonNull UPnPDevice device) {
+                put(device);
+            }
+
+            @Override
+            public void onDeviceByeBye(@NonNull UPnPDevice device) {
+                remove(device);
+            }
+
+            @Override
+            public void onPassiveDiscoveryError(@NonNull Exception e) {
+            }
+        };
+    }
+}
@@ -2,6 +2,7 @@ package com.sweepr.upnpdiscovery;
 
 import android.content.Context;
 import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -9,53 +10,32 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.android.volley.Request;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.StringRequest;
-import com.android.volley.toolbox.Volley;
-
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Android entry point: runs an {@link SsdpSearch} under a Wi-Fi multicast lock and reports on a
+ * {@link Handler}, the main thread unless the caller passes its own.
+ */
 public class UPnPDiscovery implements Runnable {
 
     private static final String TAG = "UPnPDiscovery";
 
     private static final int DISCOVER_TIMEOUT_MILLIS = 1500;
-    private static final String LINE_END = "\r\n";
-    private static final String DEFAULT_QUERY = "M-SEARCH * HTTP/1.1" + LINE_END +
-            "HOST: 239.255.255.250:1900" + LINE_END +
-            "MAN: \"ssdp:discover\"" + LINE_END +
-            "MX: 1" + LINE_END +
-            //"ST: urn:schemas-upnp-org:service:AVTransport:1" + LINE_END + // Use for Sonos
-            //"ST: urn:schemas-upnp-org:device:InternetGatewayDevice:1" + LINE_END + // Use for Routes
-            "ST: ssdp:all" + LINE_END + // Use this for all UPnP Devices
-            LINE_END;
-    private static final int DEFAULT_PORT = 1900;
-    private static final String DEFAULT_ADDRESS = "239.255.255.250";
-
-    private final Set<UPnPDevice> devices = new HashSet<>();
+
+    /** Report every device as soon as its description arrives, the default. */
+    public static final long DELIVER_EACH = 0;
+    /** Batch found devices once per display frame at 60 Hz. */
+    public static final long DELIVER_PER_FRAME = 16;
+
     @NonNull
     private final Context mContext;
     @NonNull
-    private final Handler mHandler;
-
-    @Nullable
-    private final OnDiscoveryListener mListener;
-    private int mThreadsCount = 0;
-    private final String mCustomQuery;
-    private final String mInetAddress;
-    private final int mPort;
-
-    private volatile boolean mCanContinue;
-    private boolean mCanNotifyFinish;
+    private final SsdpSearch mSearch;
 
     public interface OnDiscoveryListener {
         void onDiscoveryStart();
@@ -67,183 +47,177 @@ public class UPnPDiscovery implements Runnable {
         void onDiscoveryError(@NonNull Exception e);
     }
 
-    private UPnPDiscovery(@NonNull Context context, @Nullable Handler handler, @Nullable OnDiscoveryListener listener) {
+    /**
+     * Receives the devices of each batch as one list when a delivery interval is set, see
+     * {@link DiscoveryOptions.Builder#setDeliveryInterval}; {@link #onDiscoveryFoundNewDevice} is
+     * not called then.
+     */
+    public interface OnBatchDiscoveryListener extends OnDiscoveryListener {
+        void onDiscoveryFoundNewDevices(@NonNull List<UPnPDevice> devices);
+    }
+
+    private UPnPDiscovery(@NonNull Context context, @NonNull ScanPolicy policy, @NonNull SearchRequest request, @NonNull DiscoveryOptions options, @Nullable Handler handler, @Nullable OnDiscoveryListener listener) {
         mContext = context.getApplicationContext();
-        mHandler = handler != null ? handler : new Handler(Looper.getMainLooper());
-        mListener = listener;
-        mThreadsCount = 0;
-        mCustomQuery = DEFAULT_QUERY;
-        mInetAddress = DEFAULT_ADDRESS;
-        mPort = DEFAULT_PORT;
+        mSearch = new SsdpSearch(policy, request, transports(), loader(mContext),
+                scheduler(handler), adapt(listener));
+        mSearch.setOptions(options);
     }
 
-    private UPnPDiscovery(@NonNull Context context, @Nullable Handler handler, @Nullable OnDiscoveryListener listener, @NonNull String customQuery, @NonNull String address, int port) {
+    private UPnPDiscovery(@NonNull Context context, @NonNull ScanPolicy policy, @NonNull DiscoveryOptions options, @Nullable Handler handler, @Nullable OnDiscoveryListener listener, @NonNull String customQuery, @NonNull String address, int port) {
         mContext = context.getApplicationContext();
-        mHandler = handler != null ? handler : new Handler(Looper.getMainLooper());
-        mListener = listener;
-        mThreadsCount = 0;
-        mCustomQuery = customQuery;
-        mInetAddress = address;
-        mPort = port;
+        mSearch = new SsdpSearch(policy, customQuery, address, port, transports(), loader(mContext),
+                scheduler(handler), adapt(listener));
+        mSearch.setOptions(options);
     }
 
-    private void notifyStart() {
-        if (mListener != null) {
-            mHandler.post(new Runnable() {
-                public void run() {
-                    mListener.onDiscoveryStart();
-                }
-            });
-        }
+    @NonNull
+    private static DescriptionLoader loader(@NonNull Context context) {
+        return DescriptionFetcher.getInstance(context).getLoader();
     }
 
-    private void notifyError(Exception e) {
-        if (mListener != null) {
-            mHandler.post(new Runnable() {
-                public void run() {
-                    mListener.onDiscoveryError(e);
-                }
-            });
-        }
+    @NonNull
+    private static SsdpTransport.Factory transports() {
+        // IP_MULTICAST_IF and protocol-family channels arrived with the Java 7 socket APIs in N.
+        return SelectorTransport.factory(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
     }
 
-    private void notifyFinish(Set<UPnPDevice> devices) {
-        if (!mCanNotifyFinish) {
-            return;
-        }
+    @NonNull
+    private static Scheduler scheduler(@Nullable Handler handler) {
+        return new HandlerScheduler(handler != null ? handler : new Handler(Looper.getMainLooper()));
+    }
 
-        mCanNotifyFinish = false;
-        if (mListener != null) {
-            mHandler.post(new Runnable() {
-                public void run() {
-                    mListener.onDiscoveryFinish(devices);
-                }
-            });
+    @Nullable
+    private static SsdpSearch.Listener adapt(@Nullable final OnDiscoveryListener listener) {
+        if (listener == null) {
+            return null;
         }
+        if (listener instanceof OnBatchDiscoveryListener) {
+            return adaptBatch((OnBatchDiscoveryListener) listener);
+        }
+
+        return new SsdpSearch.Listener() {
+            @Override
+            public void onStart() {
+                listener.onDiscoveryStart();
+            }
+
+            @Override
+            public void onDeviceFound(@NonNull UPnPDevice device) {
+                listener.onDiscoveryFoundNewDevice(device);
+            }
+
+            @Override
+            public void onFinish(@NonNull Set<UPnPDevice> devices) {
+                listener.onDiscoveryFinish(devices);
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+                listener.onDiscoveryError(e);
+            }
+        };
     }
 
+    @NonNull
+    private static SsdpSearch.BatchListener adaptBatch(@NonNull final OnBatchDiscoveryListener listener) {
+        return new SsdpSearch.BatchListener() {
+            @Override
+            public void onStart() {
+                listener.onDiscoveryStart();
+            }
+
+            @Override
+            public void onDeviceFound(@NonNull UPnPDevice device) {
+                listener.onDiscoveryFoundNewDevice(device);
+            }
+
+            @Override
+            public void onDevicesFound(@NonNull List<UPnPDevice> devices) {
+                listener.onDiscoveryFoundNewDevices(devices);
+            }
+
+            @Override
+            public void onFinish(@NonNull Set<UPnPDevice> devices) {
+                listener.onDiscoveryFinish(devices);
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+                listener.onDiscoveryError(e);
+            }
+        };
+    }
+
+    /**
+     * See {@link SsdpSearch#abort()}.
+     */
     public void abort() {
-        mCanContinue = false;
+        mSearch.abort();
     }
 
     @Override
     public void run() {
-        Log.d(TAG, "Enter in background " + mThreadsCount);
-
-        mCanContinue = true;
-        mCanNotifyFinish = true;
-
-        notifyStart();
+        Log.d(TAG, "Enter in background");
 
-        final WifiManager wifi = (WifiManager) mContext.getApplicationContext().getSystemService(Context.WIFI_SERVICE);;
+        final WifiManager wifi = (WifiManager) mContext.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        WifiManager.MulticastLock lock = null;
         if (wifi != null) {
-            Log.d(TAG, "Lock wifi " + mThreadsCount);
-            WifiManager.MulticastLock lock = wifi.createMulticastLock("The Lock");
-            if(!lock.isHeld()) {
+            Log.d(TAG, "Lock wifi");
+            lock = wifi.createMulticastLock("The Lock");
+            if (!lock.isHeld()) {
                 lock.acquire();
             }
-            DatagramSocket socket = null;
-            try {
-                Log.d(TAG, "Try " + mThreadsCount);
-                final InetAddress group = InetAddress.getByName(mInetAddress);
-                final int port = mPort;
-                final String query = mCustomQuery;
-                socket = new DatagramSocket(null);
-                socket.setReuseAddress(true);
-                socket.setBroadcast(true);
-                socket.bind(new InetSocketAddress(port));
-
-                final DatagramPacket datagramPacketRequest = new DatagramPacket(query.getBytes(), query.length(), group, port);
-                socket.send(datagramPacketRequest);
-
-                final long startTime = System.currentTimeMillis();
-                long currentTime = System.currentTimeMillis();
-                while (currentTime - startTime < 1000 && mCanContinue) {
-
-                    final DatagramPacket datagramPacket = new DatagramPacket(new byte[1024], 1024);
-                    socket.receive(datagramPacket);
-
-                    final String response = new String(datagramPacket.getData(), 0, datagramPacket.getLength());
-
-                    if (response.substring(0, 12).equalsIgnoreCase("HTTP/1.1 200")) {
-                        final UPnPDevice device = new UPnPDevice(datagramPacket.getAddress().getHostAddress(), response);
-                        mThreadsCount++;
-
-                        getData(device.getLocation(), device);
-                    }
-                    currentTime = System.currentTimeMillis();
-                }
-
-            } catch (final IOException e) {
-                e.printStackTrace();
-                notifyError(e);
-            } finally {
-                if (socket != null) {
-                    socket.close();
-                }
-
-                notifyFinish(devices);
-            }
-
-            lock.release();
         }
-    }
 
-    private void getData(final String url, final UPnPDevice device) {
-        if (url != null && !url.equals("")) {
-            final StringRequest stringRequest = new StringRequest(Request.Method.GET, url,
-                    new Response.Listener<String>() {
-                        @Override
-                        public void onResponse(String response) {
-                            device.update(response);
-                            devices.add(device);
-                            mThreadsCount--;
-
-                            if (mListener != null) {
-                                mListener.onDiscoveryFoundNewDevice(device);
-                            }
-
-                            if (mThreadsCount == 0) {
-                                notifyFinish(devices);
-                            }
-                        }
-                    }, new Response.ErrorListener() {
-                @Override
-                public void onErrorResponse(VolleyError error) {
-                    mThreadsCount--;
-                    Log.d(TAG, "URL: " + url + " get content error!");
-                }
-            });
-            stringRequest.setTag(TAG + "-SSDP description request");
-            Volley.newRequestQueue(mContext).add(stringRequest);
+        try {
+            mSearch.run();
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
         }
     }
 
+    /**
+     * Fetches and parses the description of {@code device} in the background, then calls
+     * {@code result} on the main thread.
+     */
     public static void getDataFrom(final String url, final UPnPDevice device, Context context, final ResultHandler<UPnPDevice> result) {
         if (url != null && !url.isEmpty()) {
             Log.d(TAG, "Getting data from: " + url);
-            StringRequest stringRequest = new StringRequest(Request.Method.GET, url,
-                    new Response.Listener<String>() {
-                        @Override
-                        public void onResponse(String response) {
-                            device.update(response);
+            final Handler main = new Handler(Looper.getMainLooper());
+            DescriptionFetcher.getInstance(context).fetch(url, device.getMaxAge(), TAG, new ResultHandler<DeviceDescription>() {
+                @Override
+                public void onSuccess(DeviceDescription description) {
+                    device.update(description);
+                    main.post(new Runnable() {
+                        public void run() {
                             result.onSuccess(device);
                         }
-                    }, new Response.ErrorListener() {
+                    });
+                }
+
                 @Override
-                public void onErrorResponse(VolleyError error) {
-                    result.onFailure(error);
-                    Log.d(TAG, "URL: " + url + " get content error!");
+                public void onFailure(final Exception e) {
+                    main.post(new Runnable() {
+                        public void run() {
+                            result.onFailure(e);
+                        }
+                    });
                 }
             });
-            stringRequest.setTag(TAG + "-SSDP description request");
-            Volley.newRequestQueue(context).add(stringRequest);
         }
     }
 
+    /**
+     * Blocks until the discovery completes or {@code timeoutMillis} elapses, whichever comes
+     * first.
+     */
     private static boolean waitForCompletion(UPnPDiscovery discovery, long timeoutMillis) {
         try {
-            Thread.sleep(timeoutMillis <= 0 ? DISCOVER_TIMEOUT_MILLIS : timeoutMillis);
+            discovery.mSearch.getHandle().get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
             return true;
         } catch (InterruptedException e) {
             return false;
@@ -252,14 +226,115 @@ public class UPnPDiscovery implements Runnable {
         }
     }
 
+    private static long timeoutOrDefault(long timeoutMillis) {
+        return timeoutMillis <= 0 ? DISCOVER_TIMEOUT_MILLIS : timeoutMillis;
+    }
+
+    /**
+     * Starts a discovery on {@code executor} with {@link ScanPolicy#DEFAULT} and returns
+     * immediately. The returned handle completes once the search window has closed and every
+     * description has been fetched.
+     */
+    @NonNull
+    public static DiscoveryHandle startDiscovery(@NonNull Context context,
+                                                 @NonNull ExecutorService executor,
+                                                 @Nullable Handler handler,
+                                                 @Nullable OnDiscoveryListener listener) {
+        return startDiscovery(context, executor, ScanPolicy.DEFAULT, handler, listener);
+    }
+
+    @NonNull
+    public static DiscoveryHandle startDiscovery(@NonNull Context context,
+                                                 @NonNull ExecutorService executor,
+                                                 @NonNull ScanPolicy policy,
+                                                 @Nullable Handler handler,
+                                                 @Nullable OnDiscoveryListener listener) {
+        return startDiscovery(context, executor, policy, SearchRequest.DEFAULT, handler, listener);
+    }
+
+    /**
+     * Searches for every target of {@code request} on every interface that is up and supports
+     * multicast, over IPv4 and IPv6. Answers to all targets and interfaces are merged into a
+     * single result set.
+     */
+    @NonNull
+    public static DiscoveryHandle startDiscovery(@NonNull Context context,
+                                                 @NonNull ExecutorService executor,
+                                                 @NonNull ScanPolicy policy,
+                                                 @NonNull SearchRequest request,
+                                                 @Nullable Handler handler,
+                                                 @Nullable OnDiscoveryListener listener) {
+        return startDiscovery(context, executor, policy, request, DiscoveryOptions.DEFAULT, handler, listener);
+    }
+
+    /**
+     * Like {@link #startDiscovery(Context, ExecutorService, ScanPolicy, SearchRequest, Handler, OnDiscoveryListener)},
+     * with metrics, batched delivery, filtering, headers-only mode or a warm start set in
+     * {@code options}. They apply to this discovery only.
+     */
+    @NonNull
+    public static DiscoveryHandle startDiscovery(@NonNull Context context,
+                                                 @NonNull ExecutorService executor,
+                                                 @NonNull ScanPolicy policy,
+                                                 @NonNull SearchRequest request,
+                                                 @NonNull DiscoveryOptions options,
+                                                 @Nullable Handler handler,
+                                                 @Nullable OnDiscoveryListener listener) {
+        final UPnPDiscovery discovery = new UPnPDiscovery(context, policy, request, options, handler, listener);
+        executor.execute(discovery);
+        return discovery.mSearch.getHandle();
+    }
+
+    @NonNull
+    public static DiscoveryHandle startDiscovery(@NonNull Context context,
+                                                 @NonNull ExecutorService executor,
+                                                 @NonNull ScanPolicy policy,
+                                                 @Nullable Handler handler,
+                                                 @Nullable OnDiscoveryListener listener,
+                                                 @NonNull String customQuery, @NonNull String address, int port) {
+        return startDiscovery(context, executor, policy, DiscoveryOptions.DEFAULT, handler, listener, customQuery, address, port);
+    }
+
+    @NonNull
+    public static DiscoveryHandle startDiscovery(@NonNull Context context,
+                                                 @NonNull ExecutorService executor,
+                                                 @NonNull ScanPolicy policy,
+                                                 @NonNull DiscoveryOptions options,
+                                                 @Nullable Handler handler,
+                                                 @Nullable OnDiscoveryListener listener,
+                                                 @NonNull String customQuery, @NonNull String address, int port) {
+        final UPnPDiscovery discovery = new UPnPDiscovery(context, policy, options, handler, listener, customQuery, address, port);
+        executor.execute(discovery);
+        return discovery.mSearch.getHandle();
+    }
+
+    /**
+     * Runs a discovery and blocks until it completes. {@code timeoutMillis} is used as the hard
+     * deadline of a {@link ScanPolicy} with the default quiet interval.
+     */
+    public static boolean discoveryDevices(@NonNull Context context,
+                                           @NonNull ExecutorService executor,
+                                           long timeoutMillis,
+                                           @Nullable Handler handler,
+                                           @Nullable OnDiscoveryListener listener) {
+        return discoveryDevices(context, executor, timeoutMillis, DiscoveryOptions.DEFAULT, handler, listener);
+    }
+
+    /**
+     * Like {@link #discoveryDevices(Context, ExecutorService, long, Handler, OnDiscoveryListener)},
+     * with the settings of {@code options} applied to this discovery only.
+     */
     public static boolean discoveryDevices(@NonNull Context context,
                                            @NonNull ExecutorService executor,
                                            long timeoutMillis,
+                                           @NonNull DiscoveryOptions options,
                                            @Nullable Handler handler,
                                            @Nullable OnDiscoveryListener listener) {
-        final UPnPDiscovery discovery = new UPnPDiscovery(context, handler, listener);
+        final long timeout = timeoutOrDefault(timeoutMillis);
+        final UPnPDiscovery discovery = new UPnPDiscovery(context,
+                new ScanPolicy(ScanPolicy.DEFAULT_QUIET_MILLIS, timeout), SearchRequest.DEFAULT, options, handler, listener);
         executor.execute(discovery);
-        return waitForCompletion(discovery, timeoutMillis);
+        return waitForCompletion(discovery, timeout);
     }
 
     public static boolean discoveryDevices(@NonNull Context context,
@@ -268,8 +343,10 @@ public class UPnPDiscovery implements Runnable {
                                            @Nullable Handler handler,
                                            @Nullable OnDiscoveryListener listener,
                                            @NonNull String customQuery, String address, int port) {
-        final UPnPDiscovery discover = new UPnPDiscovery(context, handler, listener, customQuery, address, port);
+        final long timeout = timeoutOrDefault(timeoutMillis);
+        final UPnPDiscovery discover = new UPnPDiscovery(context,
+                new ScanPolicy(ScanPolicy.DEFAULT_QUIET_MILLIS, timeout), DiscoveryOptions.DEFAULT, handler, listener, customQuery, address, port);
         executor.execute(discover);
-        return waitForCompletion(discover, timeoutMillis);
+        return waitForCompletion(discover, timeout);
     }
 }
@@ -0,0 +1,198 @@
+package com.sweepr.upnpdiscovery;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Listens on the SSDP multicast group and hands each NOTIFY to a {@link NotifyTracker}.
+ */
+public class UPnPPassiveDiscovery implements Runnable {
+
+    private static final String TAG = "UPnPPassiveDiscovery";
+
+    private static final String DEFAULT_ADDRESS = "239.255.255.250";
+    private static final int DEFAULT_PORT = 1900;
+
+    public interface OnPassiveDiscoveryListener {
+        void onDeviceAlive(@NonNull UPnPDevice device);
+
+        void onDeviceUpdated(@NonNull UPnPDevice device);
+
+        /**
+         * A known device re-announced itself without changes; its description was not fetched
+         * again.
+         */
+        void onDeviceRefreshed(@NonNull UPnPDevice device);
+
+        /**
+         * The device said ssdp:byebye, or did not re-announce itself before its max-age ran out.
+         */
+        void onDeviceByeBye(@NonNull UPnPDevice device);
+
+        void onPassiveDiscoveryError(@NonNull Exception e);
+    }
+
+    @NonNull
+    private final Context mContext;
+    @NonNull
+    private final Handler mHandler;
+    @NonNull
+    private final OnPassiveDiscoveryListener mListener;
+    @NonNull
+    private final NotifyTracker mTracker;
+
+    private volatile boolean mCanContinue = true;
+    @Nullable
+    private volatile MulticastSocket mSocket;
+
+    private UPnPPassiveDiscovery(@NonNull Context context, @Nullable Handler handler, @NonNull final OnPassiveDiscoveryListener listener) {
+        mContext = context.getApplicationContext();
+        mHandler = handler != null ? handler : new Handler(Looper.getMainLooper());
+        mListener = listener;
+        mTracker = new NotifyTracker(new HandlerScheduler(mHandler), DescriptionFetcher.getInstance(mContext).getLoader(),
+                new NotifyTracker.Listener() {
+                    @Override
+                    public void onDeviceAlive(@NonNull UPnPDevice device) {
+                        listener.onDeviceAlive(device);
+                    }
+
+                    @Override
+                    public void onDeviceUpdated(@NonNull UPnPDevice device) {
+                        listener.onDeviceUpdated(device);
+                    }
+
+                    @Override
+                    public void onDeviceRefreshed(@NonNull UPnPDevice device) {
+                        listener.onDeviceRefreshed(device);
+                    }
+
+                    @Override
+                    public void onDeviceByeBye(@NonNull UPnPDevice device) {
+                        listener.onDeviceByeBye(device);
+                    }
+                });
+    }
+
+    /**
+     * Starts listening on {@code executor}. The listener is called on {@code handler}, or on the
+     * main thread when it is {@code null}, until {@link #stop()} is called.
+     */
+    @NonNull
+    public static UPnPPassiveDiscovery start(@NonNull Context context,
+                                             @NonNull ExecutorService executor,
+                                             @Nullable Handler handler,
+                                             @NonNull OnPassiveDiscoveryListener listener) {
+        final UPnPPassiveDiscovery discovery = new UPnPPassiveDiscovery(context, handler, listener);
+        executor.execute(discovery);
+        return discovery;
+    }
+
+    /**
+     * Leaves the multicast group and drops outstanding description fetches. Takes effect
+     * immediately, even while the socket is waiting for a packet.
+     */
+    public void stop() {
+        mCanContinue = false;
+
+        final MulticastSocket socket = mSocket;
+        if (socket != null) {
+            socket.close();
+        }
+        mTracker.stop();
+    }
+
+    @Override
+    public void run() {
+        if (!mCanContinue) {
+            return;
+        }
+
+        // Like the active search, listen without the lock when there is no Wi-Fi service.
+        final WifiManager wifi = (WifiManager) mContext.getSystemService(Context.WIFI_SERVICE);
+        WifiManager.MulticastLock lock = null;
+        if (wifi != null) {
+            lock = wifi.createMulticastLock(TAG);
+            lock.acquire();
+        }
+
+        MulticastSocket socket = null;
+        InetAddress group = null;
+        try {
+            group = InetAddress.getByName(DEFAULT_ADDRESS);
+            socket = new MulticastSocket(null);
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(DEFAULT_PORT));
+            socket.joinGroup(group);
+            mSocket = socket;
+
+            // stop() may have run before mSocket was published.
+            if (mCanContinue) {
+                receive(socket);
+            }
+        } catch (final IOException e) {
+            if (mCanContinue) {
+                Log.e(TAG, "Passive discovery failed", e);
+                notifyError(e);
+            }
+        } finally {
+            mSocket = null;
+            if (socket != null) {
+                if (group != null) {
+                    try {
+                        socket.leaveGroup(group);
+                    } catch (IOException ignore) {
+                    }
+                }
+                socket.close();
+            }
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    private void receive(@NonNull MulticastSocket socket) throws IOException {
+        final byte[] data = new byte[ReceiveBufferPool.BUFFER_SIZE];
+        final DatagramPacket packet = new DatagramPacket(data, data.length);
+
+        while (mCanContinue) {
+            packet.setLength(data.length);
+            try {
+                socket.receive(packet);
+            } catch (SocketException e) {
+                if (!mCanContinue) {
+                    return;
+                }
+                throw e;
+            }
+
+            final int length = packet.getLength();
+            if (length == data.length || !SsdpHeaders.isNotify(data, 0, length)) {
+                continue;
+            }
+            mTracker.handleNotify(packet.getAddress().getHostAddress(), data, length);
+        }
+    }
+
+    private void notifyError(@NonNull final Exception e) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mListener.onPassiveDiscoveryError(e);
+            }
+        });
+    }
+}